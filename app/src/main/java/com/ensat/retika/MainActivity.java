@@ -1,15 +1,22 @@
 package com.ensat.retika;
 
+import android.Manifest;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import androidx.navigation.NavController;
 import androidx.navigation.fragment.NavHostFragment;
 import androidx.navigation.ui.NavigationUI;
 
+import com.ensat.retika.data.Outbox;
+import com.ensat.retika.data.WriteCoalescer;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
@@ -22,6 +29,8 @@ import com.google.firebase.auth.FirebaseUser;
  */
 public class MainActivity extends AppCompatActivity {
 
+    private static final int REQUEST_NOTIFICATIONS = 1; // Request code of the notification permission
+
     private FirebaseAuth mAuth; // Firebase Authentication instance
 
     /**
@@ -37,6 +46,9 @@ public class MainActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        // Replay mutations left from earlier sessions and watch for connectivity
+        Outbox.init(this);
+
         // Initialize Firebase Authentication
         mAuth = FirebaseAuth.getInstance();
         FirebaseUser currentUser = mAuth.getCurrentUser();
@@ -59,12 +71,38 @@ public class MainActivity extends AppCompatActivity {
             // Set up the BottomNavigationView with the NavController
             BottomNavigationView bottomNavigationView = findViewById(R.id.bottom_navigation);
             NavigationUI.setupWithNavController(bottomNavigationView, navController);
+
+            requestNotificationPermission();
+        }
+    }
+
+    /**
+     * Asks for the permission to show notifications on Android 13+,
+     * used to report the progress of post uploads.
+     */
+    private void requestNotificationPermission() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_NOTIFICATIONS);
         }
     }
 
+    /**
+     * Called when the activity is no longer visible.
+     * Pending likes, follows and comments are committed right away, so leaving the app
+     * never drops them.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        WriteCoalescer.getInstance().flush();
+    }
+
     /**
      * Redirects the user to the login activity.
-     * This method is called when the user is not signed in or logs out.
+     * This method is called when the user is not signed in; logging out goes through SessionTeardown.
      */
     private void redirectToLogin() {
         Intent intent = new Intent(MainActivity.this, LoginActivity.class);
@@ -96,8 +134,7 @@ public class MainActivity extends AppCompatActivity {
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == R.id.action_logout) {
             // Sign out the user and redirect to the login activity
-            FirebaseAuth.getInstance().signOut();
-            redirectToLogin();
+            SessionTeardown.signOut(this);
             return true;
         }
         return super.onOptionsItemSelected(item);
@@ -0,0 +1,32 @@
+/**
+ * Glide configuration of the app.
+ * Registers the loader that lets images uploaded from this device be cached from their local copy.
+ */
+package com.ensat.retika;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Registry;
+import com.bumptech.glide.annotation.GlideModule;
+import com.bumptech.glide.module.AppGlideModule;
+import com.ensat.retika.data.LocalImageModelLoader;
+
+import java.io.InputStream;
+
+@GlideModule
+public class RetikaGlideModule extends AppGlideModule {
+
+    @Override
+    public void registerComponents(@NonNull Context context, @NonNull Glide glide, @NonNull Registry registry) {
+        // Prepended so it is asked before the network loader; it only handles registered URLs
+        registry.prepend(String.class, InputStream.class, new LocalImageModelLoader.Factory());
+    }
+
+    @Override
+    public boolean isManifestParsingEnabled() {
+        return false; // No library modules declared in manifests
+    }
+}
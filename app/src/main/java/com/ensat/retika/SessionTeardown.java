@@ -0,0 +1,41 @@
+/**
+ * Ends the signed-in user's session.
+ * Pending writes go out while the user is still signed in, what cannot be sent yet stays
+ * in the outbox for their next sign-in, and the per-user caches are cleared.
+ */
+package com.ensat.retika;
+
+import android.content.Context;
+import android.content.Intent;
+
+import androidx.annotation.NonNull;
+
+import com.ensat.retika.data.FollowGraph;
+import com.ensat.retika.data.LikeGraph;
+import com.ensat.retika.data.Outbox;
+import com.ensat.retika.data.WriteCoalescer;
+import com.google.firebase.auth.FirebaseAuth;
+
+public final class SessionTeardown {
+
+    private SessionTeardown() {
+    }
+
+    /**
+     * Signs the user out and opens the login screen in a new task, so the back button
+     * cannot return to the signed-in screens.
+     *
+     * @param context Context used to start the login activity.
+     */
+    public static void signOut(@NonNull Context context) {
+        Outbox.getInstance().drain(); // Send what is ready while still signed in, the rest waits for the next sign-in
+        WriteCoalescer.getInstance().flush(); // Commit pending writes while still signed in
+        FirebaseAuth.getInstance().signOut();
+        FollowGraph.getInstance().reset();
+        LikeGraph.getInstance().reset();
+
+        Intent intent = new Intent(context, LoginActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        context.startActivity(intent);
+    }
+}
@@ -3,33 +3,45 @@
  */
 package com.ensat.retika.adapters;
 
-import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.ensat.retika.R;
 import com.ensat.retika.models.Comment;
 
-import java.util.List;
+import java.util.Objects;
 
-public class CommentAdapter extends RecyclerView.Adapter<CommentAdapter.CommentViewHolder> {
-    private final List<Comment> commentList;
-    private final Context context;
+public class CommentAdapter extends ListAdapter<Comment, CommentAdapter.CommentViewHolder> {
+
+    /**
+     * Compares comments by ID and text.
+     */
+    private static final DiffUtil.ItemCallback<Comment> DIFF_CALLBACK = new DiffUtil.ItemCallback<Comment>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Comment oldItem, @NonNull Comment newItem) {
+            return Objects.equals(oldItem.getCommentId(), newItem.getCommentId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Comment oldItem, @NonNull Comment newItem) {
+            return Objects.equals(oldItem.getCommentText(), newItem.getCommentText());
+        }
+    };
 
     /**
      * Constructor for the CommentAdapter.
-     *
-     * @param commentList List of comments to display.
-     * @param context     Context for accessing resources.
+     * Comments are supplied through {@link #submitList(java.util.List)}, so one adapter
+     * can be kept per post row and reused as the row is rebound.
      */
-    public CommentAdapter(List<Comment> commentList, Context context) {
-        this.commentList = commentList;
-        this.context = context;
+    public CommentAdapter() {
+        super(DIFF_CALLBACK);
     }
 
     @NonNull
@@ -41,15 +53,10 @@ public class CommentAdapter extends RecyclerView.Adapter<CommentAdapter.CommentV
 
     @Override
     public void onBindViewHolder(@NonNull CommentViewHolder holder, int position) {
-        Comment comment = commentList.get(position);
+        Comment comment = getItem(position);
         holder.textComment.setText(comment.getCommentText());
     }
 
-    @Override
-    public int getItemCount() {
-        return commentList.size();
-    }
-
     /**
      * ViewHolder class for holding comment item views.
      */
@@ -66,4 +73,4 @@ public class CommentAdapter extends RecyclerView.Adapter<CommentAdapter.CommentV
             textComment = itemView.findViewById(R.id.text_comment);
         }
     }
-}
+}
\ No newline at end of file
@@ -14,65 +14,213 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 import com.ensat.retika.R;
+import com.ensat.retika.data.CommentRepository;
+import com.ensat.retika.data.FeedProjection;
+import com.ensat.retika.data.FollowGraph;
+import com.ensat.retika.data.ImageRenditions;
+import com.ensat.retika.data.LikeGraph;
+import com.ensat.retika.data.ShardedCounter;
+import com.ensat.retika.data.UserProfileCache;
 import com.ensat.retika.models.Comment;
 import com.ensat.retika.models.Post;
+import com.ensat.retika.models.User;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
-public class PostAdapter extends RecyclerView.Adapter<PostAdapter.PostViewHolder> {
+public class PostAdapter extends ListAdapter<Post, PostAdapter.PostViewHolder> implements FollowGraph.Listener, LikeGraph.Listener {
+
+    // Payloads for partial rebinds; a row rebound with a payload keeps its image.
+    // A change touching both likes and comments is reported as a list of both.
+    public static final String PAYLOAD_LIKES = "likes";
+    public static final String PAYLOAD_COMMENTS = "comments";
+    public static final String PAYLOAD_FOLLOW = "follow";
+
+    private static final int MAX_PREVIEW_COMMENTS = 3; // Comments shown inline; the rest behind "View all"
+    private static final int COMMENT_PAGE_SIZE = 20; // Comments loaded per page in the full list
+
+    /**
+     * Compares posts by ID and visible content.
+     * Likes and comments are reported as payloads so only the affected views are rebound.
+     */
+    private static final DiffUtil.ItemCallback<Post> DIFF_CALLBACK = new DiffUtil.ItemCallback<Post>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Post oldItem, @NonNull Post newItem) {
+            return Objects.equals(oldItem.getPostId(), newItem.getPostId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Post oldItem, @NonNull Post newItem) {
+            return sameBody(oldItem, newItem)
+                    && likesOf(oldItem) == likesOf(newItem)
+                    && commentsOf(oldItem) == commentsOf(newItem);
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull Post oldItem, @NonNull Post newItem) {
+            if (!sameBody(oldItem, newItem)) {
+                return null; // Full rebind
+            }
+            if (commentsOf(oldItem) == commentsOf(newItem)) {
+                return PAYLOAD_LIKES;
+            }
+            return likesOf(oldItem) == likesOf(newItem) ? PAYLOAD_COMMENTS : Arrays.asList(PAYLOAD_LIKES, PAYLOAD_COMMENTS);
+        }
+
+        private long likesOf(Post post) {
+            return sizeOf(post.getLikedBy()) + post.getLikeCount();
+        }
+
+        private long commentsOf(Post post) {
+            return sizeOf(post.getComments()) + post.getCommentCount();
+        }
+
+        private boolean sameBody(Post oldItem, Post newItem) {
+            return Objects.equals(oldItem.getImageUrl(), newItem.getImageUrl())
+                    && Objects.equals(oldItem.getThumbnailUrl(), newItem.getThumbnailUrl())
+                    && Objects.equals(oldItem.getFeedImageUrl(), newItem.getFeedImageUrl())
+                    && Objects.equals(oldItem.getCaption(), newItem.getCaption())
+                    && Objects.equals(oldItem.getUserId(), newItem.getUserId())
+                    && Objects.equals(oldItem.getAuthorUsername(), newItem.getAuthorUsername())
+                    && Objects.equals(oldItem.getAuthorAvatarUrl(), newItem.getAuthorAvatarUrl());
+        }
+
+        private int sizeOf(List<?> list) {
+            return list != null ? list.size() : 0;
+        }
+    };
 
-    private final List<Post> postList;
     private final int layoutResourceId;
     private final String currentUserId;
     private final FirebaseFirestore db;
-    private final Map<String, String> usernameCache;
+    private final CommentRepository commentRepository;
+    private final UserProfileCache userProfileCache;
+    private final FollowGraph followGraph;
+    private final LikeGraph likeGraph;
     private final Context context;
+    private final Map<String, Long> stableIds; // Post ID to a collision-free RecyclerView item ID, for listed posts
+    private long nextStableId = 0; // Never reused, so pruned IDs cannot collide
+    private final RecyclerView.RecycledViewPool commentViewPool; // Shared by every nested comment list
+    private final Map<String, List<Comment>> addedComments; // Comments posted from this device, by post ID
+    private final Map<String, Boolean> shownLikes; // Like state each post was last bound with
+    private final Map<String, Long> shardedLikes; // Sum of the like shards of hot posts, read once
+    private final Map<String, Long> likeDeltas; // Likes toggled from this device, not yet in the listed post
+    private final Map<String, Long> commentDeltas; // Comments posted from this device, not yet in the listed post
+    private final Set<String> loadingShards; // Posts whose like shards are being read
+    private int imageTargetSize = 0; // Larger side of the post image view in pixels, measured on first row
 
     /**
      * Constructor for the PostAdapter.
+     * Posts are supplied through {@link #submitList(List)} and diffed on a background thread.
      *
-     * @param postList         List of posts to display.
      * @param layoutResourceId Layout resource ID for the post item.
      * @param currentUserId    ID of the currently logged-in user.
      * @param context          Context for accessing resources.
      */
-    public PostAdapter(List<Post> postList, int layoutResourceId, String currentUserId, Context context) {
-        this.postList = postList;
+    public PostAdapter(int layoutResourceId, String currentUserId, Context context) {
+        super(new AsyncDifferConfig.Builder<>(DIFF_CALLBACK).build());
         this.layoutResourceId = layoutResourceId;
         this.currentUserId = currentUserId;
         this.db = FirebaseFirestore.getInstance();
-        this.usernameCache = new HashMap<>();
+        this.commentRepository = new CommentRepository(db);
+        this.userProfileCache = UserProfileCache.getInstance();
+        this.followGraph = FollowGraph.getInstance();
+        this.likeGraph = LikeGraph.getInstance();
         this.context = context;
+        this.stableIds = new HashMap<>();
+        this.addedComments = new HashMap<>();
+        this.shownLikes = new HashMap<>();
+        this.shardedLikes = new HashMap<>();
+        this.likeDeltas = new HashMap<>();
+        this.commentDeltas = new HashMap<>();
+        this.loadingShards = new HashSet<>();
+        this.commentViewPool = new RecyclerView.RecycledViewPool();
+        this.commentViewPool.setMaxRecycledViews(0, 4 * MAX_PREVIEW_COMMENTS);
+        setHasStableIds(true);
     }
 
     @NonNull
     @Override
     public PostViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View view = LayoutInflater.from(parent.getContext()).inflate(layoutResourceId, parent, false);
-        return new PostViewHolder(view);
+        PostViewHolder holder = new PostViewHolder(view);
+        if (imageTargetSize == 0) {
+            imageTargetSize = targetSizeOf(parent, holder.imageView);
+        }
+
+        // Set up the nested comment list once per row; binds only submit new lists
+        if (holder.recyclerViewComments != null) {
+            LinearLayoutManager layoutManager = new LinearLayoutManager(context);
+            layoutManager.setRecycleChildrenOnDetach(true); // Hand comment rows back to the shared pool
+            holder.recyclerViewComments.setLayoutManager(layoutManager);
+            holder.recyclerViewComments.setRecycledViewPool(commentViewPool);
+            holder.recyclerViewComments.setAdapter(holder.commentAdapter);
+        }
+        return holder;
+    }
+
+    /**
+     * Estimates the larger side of the post image view of a row, before it is laid out:
+     * the list width split across grid columns, or the image's fixed height if larger.
+     *
+     * @param parent    RecyclerView the rows belong to.
+     * @param imageView Post image view of a row.
+     * @return Larger side of the image view, in pixels.
+     */
+    private int targetSizeOf(ViewGroup parent, ImageView imageView) {
+        int width = parent.getWidth() > 0 ? parent.getWidth() : context.getResources().getDisplayMetrics().widthPixels;
+        RecyclerView.LayoutManager layoutManager = ((RecyclerView) parent).getLayoutManager();
+        if (layoutManager instanceof GridLayoutManager) {
+            width /= ((GridLayoutManager) layoutManager).getSpanCount();
+        }
+        int height = imageView.getLayoutParams() != null ? imageView.getLayoutParams().height : 0;
+        return Math.max(width, height);
     }
 
     @Override
     public void onBindViewHolder(@NonNull PostViewHolder holder, int position) {
-        Post post = postList.get(position);
+        Post post = getItem(position);
 
-        // Load post image
+        // Load the smallest rendition of the post image that fills the view
         Glide.with(context)
-                .load(post.getImageUrl())
+                .load(ImageRenditions.urlFor(post, imageTargetSize))
                 .placeholder(R.drawable.ic_launcher_background)
                 .into(holder.imageView);
 
         if (layoutResourceId == R.layout.item_post) {
-            fetchAndSetUsername(holder.textUsername, post.getUserId());
+            if (post.getAuthorUsername() != null) {
+                // Denormalized by the feed projection, no profile read needed
+                holder.textUsername.setTag(post.getUserId());
+                holder.textUsername.setText(post.getAuthorUsername());
+            } else {
+                fetchAndSetUsername(holder.textUsername, post.getUserId());
+            }
+
+            if (holder.imageProfile != null) {
+                Glide.with(context)
+                        .load(post.getAuthorAvatarUrl())
+                        .placeholder(R.drawable.ic_profile_placeholder)
+                        .circleCrop()
+                        .into(holder.imageProfile);
+            }
 
             if (holder.textCaption != null) {
                 holder.textCaption.setVisibility(View.VISIBLE);
@@ -93,7 +241,7 @@ public class PostAdapter extends RecyclerView.Adapter<PostAdapter.PostViewHolder
             }
 
             if (holder.recyclerViewComments != null) {
-                bindComments(holder.recyclerViewComments, post);
+                bindComments(holder, post);
             }
         } else if (layoutResourceId == R.layout.item_post_grid) {
             // Handle grid layout visibility
@@ -106,9 +254,194 @@ public class PostAdapter extends RecyclerView.Adapter<PostAdapter.PostViewHolder
         }
     }
 
+    /**
+     * Binds a row partially when only likes, comments or follow state changed.
+     * The post image is left untouched, so Glide does not restart its load.
+     *
+     * @param holder   ViewHolder to bind.
+     * @param position Position of the post.
+     * @param payloads Change payloads; empty for a full bind.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull PostViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (payloads.isEmpty() || layoutResourceId != R.layout.item_post) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+
+        Post post = getItem(position);
+        for (Object payload : payloads) {
+            bindPayload(holder, post, payload);
+        }
+    }
+
+    /**
+     * Rebinds the part of a row named by a payload.
+     *
+     * @param holder  ViewHolder to bind.
+     * @param post    Post shown by the row.
+     * @param payload One of the payload constants, or a list of them.
+     */
+    private void bindPayload(PostViewHolder holder, Post post, Object payload) {
+        if (payload instanceof List) {
+            for (Object part : (List<?>) payload) {
+                bindPayload(holder, post, part);
+            }
+        } else if (PAYLOAD_LIKES.equals(payload) && holder.buttonLike != null) {
+            handleLikeButton(holder.buttonLike, post);
+        } else if (PAYLOAD_COMMENTS.equals(payload) && holder.recyclerViewComments != null) {
+            bindComments(holder, post);
+        } else if (PAYLOAD_FOLLOW.equals(payload) && holder.buttonFollow != null) {
+            handleFollowButton(holder.buttonFollow, post.getUserId());
+        }
+    }
+
+    /**
+     * Returns a stable item ID derived from the post ID.
+     *
+     * @param position Position of the post.
+     * @return Stable item ID.
+     */
+    @Override
+    public long getItemId(int position) {
+        String postId = getItem(position).getPostId();
+        if (postId == null) {
+            return RecyclerView.NO_ID;
+        }
+        Long id = stableIds.get(postId);
+        if (id == null) {
+            id = nextStableId++;
+            stableIds.put(postId, id);
+        }
+        return id;
+    }
+
+    /**
+     * Drops the state kept for posts that left the list, and the optimistic deltas of posts
+     * replaced by a copy whose counters moved: that copy already counts the writes made here.
+     * Comments posted from this device are dropped once the post carries them itself.
+     * Posts are never modified by the adapter, so the diff compares the old and new copies.
+     *
+     * @param previousList List shown before.
+     * @param currentList  List shown now.
+     */
+    @Override
+    public void onCurrentListChanged(@NonNull List<Post> previousList, @NonNull List<Post> currentList) {
+        super.onCurrentListChanged(previousList, currentList);
+        Map<String, Post> previous = new HashMap<>();
+        for (Post post : previousList) {
+            previous.put(post.getPostId(), post);
+        }
+
+        Set<String> listed = new HashSet<>();
+        for (Post post : currentList) {
+            String postId = post.getPostId();
+            listed.add(postId);
+            dropCarriedComments(post);
+            Post old = previous.get(postId);
+            if (old == null || old == post) continue;
+            if (likeCountOf(old) != likeCountOf(post)) likeDeltas.remove(postId);
+            if (old.getCommentCount() != post.getCommentCount()) commentDeltas.remove(postId);
+        }
+        stableIds.keySet().retainAll(listed);
+        likeDeltas.keySet().retainAll(listed);
+        commentDeltas.keySet().retainAll(listed);
+        addedComments.keySet().retainAll(listed);
+        shownLikes.keySet().retainAll(listed);
+    }
+
+    /**
+     * Drops the comments posted from this device that a post now carries in its first comments,
+     * so they are not shown twice.
+     *
+     * @param post Post as listed now.
+     */
+    private void dropCarriedComments(Post post) {
+        List<Comment> added = addedComments.get(post.getPostId());
+        if (added == null || added.isEmpty()) return;
+
+        Set<String> carried = new HashSet<>();
+        for (Comment comment : firstCommentsOf(post)) {
+            carried.add(comment.getCommentId());
+        }
+        Iterator<Comment> iterator = added.iterator();
+        while (iterator.hasNext()) {
+            if (carried.contains(iterator.next().getCommentId())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        followGraph.addListener(this);
+        likeGraph.addListener(this);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        followGraph.removeListener(this);
+        likeGraph.removeListener(this);
+    }
+
+    /**
+     * Rebinds the follow buttons affected by a follow state change.
+     *
+     * @param userId ID of the user whose state changed, or null if the whole graph was loaded.
+     */
+    @Override
+    public void onFollowStateChanged(String userId) {
+        if (layoutResourceId != R.layout.item_post) return;
+
+        List<Post> posts = getCurrentList();
+        if (userId == null) {
+            notifyItemRangeChanged(0, posts.size(), PAYLOAD_FOLLOW);
+            return;
+        }
+        for (int i = 0; i < posts.size(); i++) {
+            if (userId.equals(posts.get(i).getUserId())) {
+                notifyItemChanged(i, PAYLOAD_FOLLOW);
+            }
+        }
+    }
+
+    /**
+     * Rebinds the like buttons affected by a like state change.
+     * The shown like count follows the change, including rollbacks of failed writes.
+     *
+     * @param postId ID of the post whose state changed, or null if the whole graph was loaded.
+     */
     @Override
-    public int getItemCount() {
-        return postList.size();
+    public void onLikeStateChanged(String postId) {
+        if (layoutResourceId != R.layout.item_post) return;
+
+        List<Post> posts = getCurrentList();
+        if (postId == null) {
+            shownLikes.clear();
+            notifyItemRangeChanged(0, posts.size(), PAYLOAD_LIKES);
+            return;
+        }
+
+        boolean liked = likeGraph.isLiked(postId);
+        Boolean shown = shownLikes.put(postId, liked);
+        for (int i = 0; i < posts.size(); i++) {
+            Post post = posts.get(i);
+            if (postId.equals(post.getPostId())) {
+                if (shown != null && shown != liked) {
+                    Long sharded = shardedLikes.get(postId);
+                    if (sharded != null) {
+                        // Kept across reloads of the post, whose own counter no longer moves
+                        shardedLikes.put(postId, sharded + (liked ? 1 : -1));
+                    } else {
+                        likeDeltas.put(postId, deltaOf(likeDeltas, postId) + (liked ? 1 : -1));
+                    }
+                }
+                notifyItemChanged(i, PAYLOAD_LIKES);
+                break;
+            }
+        }
     }
 
     /**
@@ -118,99 +451,122 @@ public class PostAdapter extends RecyclerView.Adapter<PostAdapter.PostViewHolder
      * @param userId       ID of the user.
      */
     private void fetchAndSetUsername(TextView textUsername, String userId) {
-        if (usernameCache.containsKey(userId)) {
-            textUsername.setText(usernameCache.get(userId));
+        textUsername.setTag(userId); // Guards against late results landing on a recycled row
+        if (userProfileCache.contains(userId)) {
+            textUsername.setText(usernameOf(userProfileCache.peek(userId)));
         } else {
-            db.collection("users").document(userId).get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        if (documentSnapshot.exists()) {
-                            String username = documentSnapshot.getString("username");
-                            usernameCache.put(userId, username);
-                            textUsername.setText(username);
-                        } else {
-                            textUsername.setText("Unknown User");
+            textUsername.setText(null);
+            userProfileCache.get(userId)
+                    .addOnSuccessListener(user -> {
+                        if (userId.equals(textUsername.getTag())) {
+                            textUsername.setText(usernameOf(user));
                         }
                     })
-                    .addOnFailureListener(e -> textUsername.setText("Error Loading User"));
+                    .addOnFailureListener(e -> {
+                        if (userId.equals(textUsername.getTag())) {
+                            textUsername.setText("Error Loading User");
+                        }
+                    });
         }
     }
 
+    /**
+     * Returns the name to display for a cached user.
+     *
+     * @param user Cached user, or null if the user does not exist.
+     * @return Username to display.
+     */
+    private String usernameOf(User user) {
+        return user != null ? user.getUsername() : "Unknown User";
+    }
+
     /**
      * Handles the like button functionality for a post.
+     * The like state is read from the local like graph, so binding costs no read.
      *
      * @param buttonLike Button to toggle likes.
      * @param post       Post object being liked/unliked.
      */
     private void handleLikeButton(Button buttonLike, Post post) {
-        if (post.getLikedBy() == null) {
-            post.setLikedBy(new ArrayList<>());
-        }
-
-        if (post.getLikedBy().contains(currentUserId)) {
-            buttonLike.setText("Unlike");
-        } else {
-            buttonLike.setText("Like");
-        }
-
-        buttonLike.setOnClickListener(v -> {
-            List<String> likedBy = post.getLikedBy();
-            if (likedBy.contains(currentUserId)) {
-                likedBy.remove(currentUserId);
-                buttonLike.setText("Like");
+        boolean liked = likeGraph.isLiked(post.getPostId());
+        shownLikes.put(post.getPostId(), liked);
+
+        long likes = likeCountOf(post) + deltaOf(likeDeltas, post.getPostId());
+        if (post.getLikeShards() > 0) {
+            Long sharded = shardedLikes.get(post.getPostId());
+            if (sharded != null) {
+                likes += sharded;
             } else {
-                likedBy.add(currentUserId);
-                buttonLike.setText("Unlike");
+                loadShardedLikes(post);
             }
+        }
+        String label = liked ? "Unlike" : "Like";
+        buttonLike.setText(likes > 0 ? label + " (" + likes + ")" : label);
+        buttonLike.setEnabled(likeGraph.isLoaded());
 
+        buttonLike.setOnClickListener(v -> {
             if (post.getPostId() != null) {
-                db.collection("posts").document(post.getPostId())
-                        .update("likedBy", likedBy)
-                        .addOnFailureListener(e -> e.printStackTrace());
+                likeGraph.toggle(post.getPostId(), post.getLikeShards());
             }
         });
     }
 
+    /**
+     * Reads the like shards of a hot post once and rebinds its like button with the sum.
+     *
+     * @param post Post whose like counter is sharded.
+     */
+    private void loadShardedLikes(Post post) {
+        String postId = post.getPostId();
+        if (postId == null || loadingShards.contains(postId)) return;
+        loadingShards.add(postId);
+
+        new ShardedCounter(db.collection("posts").document(postId), "likeCount").sumShards()
+                .addOnCompleteListener(task -> {
+                    loadingShards.remove(postId);
+                    if (task.isSuccessful()) {
+                        shardedLikes.put(postId, task.getResult());
+                        notifyPostChanged(post, PAYLOAD_LIKES);
+                    }
+                });
+    }
+
+    /**
+     * Returns the number of likes of a post.
+     * For sharded counters, this is only the part stored on the post.
+     * Posts created before like records existed may still count part of their likes in likedBy.
+     *
+     * @param post Post object.
+     * @return Like count.
+     */
+    private long likeCountOf(Post post) {
+        return (post.getLikedBy() != null ? post.getLikedBy().size() : 0) + post.getLikeCount();
+    }
+
+    /**
+     * Returns the optimistic change of a counter of a post.
+     *
+     * @param deltas Changes by post ID.
+     * @param postId ID of the post.
+     * @return Change not yet reflected in the listed post, 0 if none.
+     */
+    private static long deltaOf(Map<String, Long> deltas, String postId) {
+        Long delta = deltas.get(postId);
+        return delta != null ? delta : 0;
+    }
+
     /**
      * Handles the follow button functionality for a user.
+     * The follow state is read from the local follow graph, so binding costs no read.
      *
      * @param buttonFollow Button to toggle follow status.
      * @param userId       ID of the user being followed/unfollowed.
      */
     private void handleFollowButton(Button buttonFollow, String userId) {
-        db.collection("users").document(userId).get()
-                .addOnSuccessListener(documentSnapshot -> {
-                    if (documentSnapshot.exists()) {
-                        List<String> followers = (List<String>) documentSnapshot.get("followers");
-                        if (followers != null && followers.contains(currentUserId)) {
-                            buttonFollow.setText("Following");
-                        } else {
-                            buttonFollow.setText("Follow");
-                        }
-                    }
-                });
+        buttonFollow.setEnabled(followGraph.isLoaded());
+        buttonFollow.setText(followGraph.isFollowing(userId) ? "Following" : "Follow");
 
-        buttonFollow.setOnClickListener(v -> {
-            db.collection("users").document(userId).get()
-                    .addOnSuccessListener(documentSnapshot -> {
-                        if (documentSnapshot.exists()) {
-                            List<String> followers = (List<String>) documentSnapshot.get("followers");
-                            if (followers == null) followers = new ArrayList<>();
-                            if (followers.contains(currentUserId)) {
-                                followers.remove(currentUserId);
-                                buttonFollow.setText("Follow");
-                            } else {
-                                followers.add(currentUserId);
-                                buttonFollow.setText("Following");
-                            }
-
-                            db.collection("users").document(userId)
-                                    .update("followers", followers)
-                                    .addOnFailureListener(e -> {
-                                        // Handle failure
-                                    });
-                        }
-                    });
-        });
+        buttonFollow.setOnClickListener(v -> followGraph.toggle(userId));
     }
 
     /**
@@ -238,44 +594,214 @@ public class PostAdapter extends RecyclerView.Adapter<PostAdapter.PostViewHolder
     }
 
     /**
-     * Adds a comment to a post and updates it in Firestore.
+     * Adds a comment to a post.
+     * The comment is shown right away and recorded in the outbox, which appends it to the
+     * post's comments subcollection once the network allows; it is removed again only if
+     * Firestore rejects it.
      *
      * @param post        Post object to add the comment to.
      * @param commentText Text of the comment.
      */
     private void addCommentToPost(Post post, String commentText) {
-        String commentId = db.collection("comments").document().getId();
-        Comment comment = new Comment(commentId, currentUserId, commentText, System.currentTimeMillis());
+        Comment comment = commentRepository.newComment(post.getPostId(), currentUserId, commentText);
 
-        if (post.getComments() == null) {
-            post.setComments(new ArrayList<>());
-        }
-        post.getComments().add(comment);
+        List<Comment> added = addedCommentsOf(post);
+        added.add(comment);
+        commentDeltas.put(post.getPostId(), deltaOf(commentDeltas, post.getPostId()) + 1);
+        notifyPostChanged(post, PAYLOAD_COMMENTS);
 
-        db.collection("posts").document(post.getPostId())
-                .update("comments", post.getComments())
-                .addOnSuccessListener(aVoid -> {
-                    Toast.makeText(context, "Comment added!", Toast.LENGTH_SHORT).show();
-                    notifyDataSetChanged();
-                })
+        boolean inPreview = firstCommentsOf(post).size() + added.size() <= FeedProjection.RECENT_COMMENTS;
+        commentRepository.addComment(post.getPostId(), comment, inPreview)
+                .addOnSuccessListener(aVoid -> Toast.makeText(context, "Comment added!", Toast.LENGTH_SHORT).show())
                 .addOnFailureListener(e -> {
+                    added.remove(comment);
+                    commentDeltas.put(post.getPostId(), deltaOf(commentDeltas, post.getPostId()) - 1);
+                    notifyPostChanged(post, PAYLOAD_COMMENTS);
                     Toast.makeText(context, "Failed to add comment: " + e.getMessage(), Toast.LENGTH_SHORT).show();
                 });
     }
 
     /**
-     * Binds the comments for a post to a RecyclerView.
+     * Returns the comments posted on a post from this device.
+     * The list starts with comments still waiting in the outbox, e.g. from an earlier session.
      *
-     * @param recyclerViewComments RecyclerView to display comments.
-     * @param post                 Post object containing the comments.
+     * @param post Post object.
+     * @return Mutable list of the comments.
      */
-    private void bindComments(RecyclerView recyclerViewComments, Post post) {
-        if (post.getComments() != null && !post.getComments().isEmpty()) {
-            CommentAdapter commentAdapter = new CommentAdapter(post.getComments(), context);
-            recyclerViewComments.setAdapter(commentAdapter);
-            recyclerViewComments.setLayoutManager(new LinearLayoutManager(context));
-        } else {
-            recyclerViewComments.setAdapter(null);
+    private List<Comment> addedCommentsOf(Post post) {
+        List<Comment> added = addedComments.get(post.getPostId());
+        if (added == null) {
+            added = new ArrayList<>(CommentRepository.pendingComments(post.getPostId()));
+            addedComments.put(post.getPostId(), added);
+        }
+        return added;
+    }
+
+    /**
+     * Rebinds part of the row showing a post.
+     *
+     * @param post    Post that changed.
+     * @param payload Part of the row to rebind.
+     */
+    private void notifyPostChanged(Post post, String payload) {
+        List<Post> posts = getCurrentList();
+        for (int i = 0; i < posts.size(); i++) {
+            // By ID: the list may hold a newer copy of the post by now
+            if (Objects.equals(post.getPostId(), posts.get(i).getPostId())) {
+                notifyItemChanged(i, payload);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the comments a post carries itself: the embedded legacy comments,
+     * or the first comments denormalized into its feed item.
+     *
+     * @param post Post object.
+     * @return Comments of the post document, possibly empty.
+     */
+    private List<Comment> firstCommentsOf(Post post) {
+        if (post.getComments() != null) return post.getComments();
+        if (post.getRecentComments() != null) return post.getRecentComments();
+        return new ArrayList<>();
+    }
+
+    /**
+     * Returns the number of comments of a post, including those posted from this device
+     * that the listed post does not count yet.
+     *
+     * @param post Post object.
+     * @return Comment count.
+     */
+    private long commentCountOf(Post post) {
+        return (post.getComments() != null ? post.getComments().size() : 0) + post.getCommentCount()
+                + deltaOf(commentDeltas, post.getPostId());
+    }
+
+    /**
+     * Binds a preview of the comments of a post.
+     * The preview shows the comments the post carries itself and comments posted
+     * from this device; the full list, read page by page from the comments subcollection,
+     * opens from the "View all" link.
+     *
+     * @param holder ViewHolder of the post row.
+     * @param post   Post object containing the comments.
+     */
+    private void bindComments(PostViewHolder holder, Post post) {
+        List<Comment> comments = new ArrayList<>(firstCommentsOf(post));
+        comments.addAll(addedCommentsOf(post));
+
+        int from = Math.max(0, comments.size() - MAX_PREVIEW_COMMENTS);
+        List<Comment> preview = new ArrayList<>(comments.subList(from, comments.size()));
+        holder.commentAdapter.submitList(preview);
+
+        long total = commentCountOf(post);
+        if (holder.textCommentsLabel != null) {
+            holder.textCommentsLabel.setText(total > 0 ? "Comments (" + total + ")" : "Comments");
+        }
+
+        if (holder.textViewAllComments != null) {
+            if (total > preview.size()) {
+                holder.textViewAllComments.setText("View all " + total + " comments");
+                holder.textViewAllComments.setVisibility(View.VISIBLE);
+                holder.textViewAllComments.setOnClickListener(v -> openAllCommentsDialog(post));
+            } else {
+                holder.textViewAllComments.setVisibility(View.GONE);
+                holder.textViewAllComments.setOnClickListener(null);
+            }
+        }
+    }
+
+    /**
+     * Opens a dialog listing every comment of a post.
+     * Embedded comments are shown first, then the subcollection is read page by page
+     * as the list is scrolled to its end.
+     *
+     * @param post Post object containing the comments.
+     */
+    private void openAllCommentsDialog(Post post) {
+        RecyclerView recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        recyclerView.setRecycledViewPool(commentViewPool);
+        CommentAdapter commentAdapter = new CommentAdapter();
+        recyclerView.setAdapter(commentAdapter);
+
+        List<Comment> shown = new ArrayList<>();
+        if (post.getComments() != null) shown.addAll(post.getComments());
+        commentAdapter.submitList(new ArrayList<>(shown));
+
+        long total = commentCountOf(post);
+        CommentPager pager = new CommentPager(post, total, shown, commentAdapter);
+        pager.loadNextPage();
+        recyclerView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                super.onScrolled(recyclerView, dx, dy);
+                if (!recyclerView.canScrollVertically(1)) { // Check if at bottom
+                    pager.loadNextPage();
+                }
+            }
+        });
+
+        new android.app.AlertDialog.Builder(context)
+                .setTitle("Comments")
+                .setView(recyclerView)
+                .setPositiveButton("Close", (dialog, which) -> dialog.dismiss())
+                .show();
+    }
+
+    /**
+     * Reads the comments subcollection of a post page by page into a comment list.
+     * Rows read from the feed projection do not carry legacy embedded comments; if the
+     * subcollection runs out before the comment count is reached, they are read from the
+     * post document once and put in front.
+     */
+    private class CommentPager {
+        private final Post post;
+        private final long expected; // Comment count of the post
+        private final List<Comment> shown;
+        private final CommentAdapter commentAdapter;
+        private DocumentSnapshot last; // Cursor after the last loaded comment
+        private boolean loading = false;
+        private boolean hasMore = true;
+
+        CommentPager(Post post, long expected, List<Comment> shown, CommentAdapter commentAdapter) {
+            this.post = post;
+            this.expected = expected;
+            this.shown = shown;
+            this.commentAdapter = commentAdapter;
+        }
+
+        void loadNextPage() {
+            if (loading || !hasMore) return;
+            loading = true;
+
+            commentRepository.loadComments(post.getPostId(), last, COMMENT_PAGE_SIZE)
+                    .addOnSuccessListener(page -> {
+                        shown.addAll(page.getComments());
+                        last = page.getLast();
+                        hasMore = page.hasMore();
+                        loading = false;
+                        commentAdapter.submitList(new ArrayList<>(shown));
+                        if (!hasMore && post.getComments() == null && shown.size() < expected) {
+                            loadEmbeddedComments();
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        loading = false;
+                        Toast.makeText(context, "Failed to load comments: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                    });
+        }
+
+        private void loadEmbeddedComments() {
+            db.collection("posts").document(post.getPostId()).get()
+                    .addOnSuccessListener(documentSnapshot -> {
+                        Post full = documentSnapshot.toObject(Post.class);
+                        if (full == null || full.getComments() == null) return;
+                        shown.addAll(0, full.getComments());
+                        commentAdapter.submitList(new ArrayList<>(shown));
+                    });
         }
     }
 
@@ -283,10 +809,12 @@ public class PostAdapter extends RecyclerView.Adapter<PostAdapter.PostViewHolder
      * ViewHolder class for holding post item views.
      */
     public static class PostViewHolder extends RecyclerView.ViewHolder {
-        ImageView imageView;
+        ImageView imageView, imageProfile;
         TextView textCaption, textUsername;
         Button buttonLike, buttonFollow, buttonComment;
         RecyclerView recyclerViewComments;
+        TextView textCommentsLabel, textViewAllComments;
+        final CommentAdapter commentAdapter; // Reused across binds of this row
 
         /**
          * Constructor for PostViewHolder.
@@ -296,12 +824,16 @@ public class PostAdapter extends RecyclerView.Adapter<PostAdapter.PostViewHolder
         public PostViewHolder(@NonNull View itemView) {
             super(itemView);
             imageView = itemView.findViewById(R.id.post_image);
+            imageProfile = itemView.findViewById(R.id.image_profile);
             textCaption = itemView.findViewById(R.id.text_caption);
             textUsername = itemView.findViewById(R.id.text_username);
             buttonLike = itemView.findViewById(R.id.button_like);
             buttonComment = itemView.findViewById(R.id.button_comment);
             buttonFollow = itemView.findViewById(R.id.button_follow);
             recyclerViewComments = itemView.findViewById(R.id.recycler_view_comments);
+            textCommentsLabel = itemView.findViewById(R.id.text_comments_label);
+            textViewAllComments = itemView.findViewById(R.id.text_view_all_comments);
+            commentAdapter = new CommentAdapter();
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+/**
+ * Reads and writes the comments of posts.
+ * Comments live in a posts/{postId}/comments subcollection, ordered by timestamp,
+ * with a commentCount counter on the post document.
+ */
+package com.ensat.retika.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ensat.retika.models.Comment;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CommentRepository {
+
+    public static final String OUTBOX_TYPE = "comment";
+
+    private final FirebaseFirestore db;
+
+    /**
+     * Constructor for the CommentRepository.
+     *
+     * @param db Firestore instance to read from and write to.
+     */
+    public CommentRepository(@NonNull FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    /**
+     * Creates a comment with a fresh ID, without writing it.
+     *
+     * @param postId      ID of the commented post.
+     * @param userId      ID of the user commenting.
+     * @param commentText Text of the comment.
+     * @return The new comment.
+     */
+    public Comment newComment(@NonNull String postId, @NonNull String userId, @NonNull String commentText) {
+        String commentId = commentsOf(postId).document().getId();
+        return new Comment(commentId, userId, commentText, System.currentTimeMillis());
+    }
+
+    /**
+     * Appends a comment to a post.
+     * The comment document, the post's counter and the post's feed item are written
+     * in the same batch; other comments are never read or rewritten.
+     * The write is recorded in the {@link Outbox} first, so it survives going offline,
+     * and then goes through the {@link WriteCoalescer}, so comments posted in quick
+     * succession share one batch with other pending writes.
+     *
+     * @param postId    ID of the commented post.
+     * @param comment   Comment to add, with its ID set.
+     * @param inPreview True if the comment is one of the post's first comments,
+     *                  which the feed item shows.
+     * @return Task completing once the comment is committed, or failing if Firestore rejects it.
+     */
+    public Task<Void> addComment(@NonNull String postId, @NonNull Comment comment, boolean inPreview) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("postId", postId);
+        payload.put("commentId", comment.getCommentId());
+        payload.put("userId", comment.getUserId());
+        payload.put("commentText", comment.getCommentText());
+        payload.put("timestamp", comment.getTimestamp());
+        payload.put("inPreview", inPreview);
+        return Outbox.getInstance().record(OUTBOX_TYPE, "comments/" + comment.getCommentId(), payload);
+    }
+
+    /**
+     * Returns the comments still waiting in the outbox for a post, so they can be shown
+     * before they reach Firestore.
+     *
+     * @param postId ID of the post.
+     * @return Pending comments, oldest first.
+     */
+    public static List<Comment> pendingComments(@NonNull String postId) {
+        List<Comment> comments = new ArrayList<>();
+        for (Outbox.Entry entry : Outbox.getInstance().pending(OUTBOX_TYPE)) {
+            JSONObject payload = entry.getPayload();
+            if (postId.equals(payload.optString("postId"))) {
+                comments.add(commentOf(payload));
+            }
+        }
+        return comments;
+    }
+
+    /**
+     * Sends a comment recorded in the outbox.
+     *
+     * @param entry  Outbox entry of the comment.
+     * @param marker Marker document to write with the comment.
+     * @return Task completing once the comment is committed.
+     */
+    public Task<Void> dispatch(@NonNull Outbox.Entry entry, @NonNull DocumentReference marker) {
+        JSONObject payload = entry.getPayload();
+        String postId = payload.optString("postId");
+        Comment comment = commentOf(payload);
+        boolean inPreview = payload.optBoolean("inPreview");
+        Map<String, Object> markerData = entry.toMarker();
+
+        return WriteCoalescer.getInstance().enqueue(new WriteCoalescer.Mutation() {
+            @Override
+            public String key() {
+                return "comments/" + postId + "/" + comment.getCommentId(); // Unique, never merged
+            }
+
+            @Override
+            public WriteCoalescer.Mutation mergeWith(@NonNull WriteCoalescer.Mutation later) {
+                return later;
+            }
+
+            @Override
+            public void applyTo(@NonNull WriteBatch batch) {
+                DocumentReference postRef = db.collection("posts").document(postId);
+                batch.set(commentsOf(postId).document(comment.getCommentId()), comment);
+                batch.update(postRef, "commentCount", FieldValue.increment(1));
+                new FeedProjection(db).onCommentAdded(batch, postId, comment, inPreview);
+                batch.set(marker, markerData);
+            }
+
+            @Override
+            public void onFailure(@NonNull Exception e) {
+                // The outbox retries or drops the entry and tells the caller
+            }
+        });
+    }
+
+    private static Comment commentOf(JSONObject payload) {
+        return new Comment(payload.optString("commentId"), payload.optString("userId"),
+                payload.optString("commentText"), payload.optLong("timestamp"));
+    }
+
+    /**
+     * Loads a page of comments, oldest first.
+     *
+     * @param postId   ID of the post.
+     * @param after    Last comment document of the previous page, or null for the first page.
+     * @param pageSize Maximum number of comments to load.
+     * @return Task resolving to the page.
+     */
+    public Task<CommentPage> loadComments(@NonNull String postId, @Nullable DocumentSnapshot after, int pageSize) {
+        Query query = commentsOf(postId).orderBy("timestamp", Query.Direction.ASCENDING).limit(pageSize);
+        if (after != null) {
+            query = query.startAfter(after);
+        }
+
+        return query.get().continueWith(task -> {
+            QuerySnapshot querySnapshot = task.getResult();
+            List<Comment> comments = new ArrayList<>();
+            for (DocumentSnapshot doc : querySnapshot) {
+                Comment comment = doc.toObject(Comment.class);
+                if (comment != null) {
+                    comment.setCommentId(doc.getId());
+                    comments.add(comment);
+                }
+            }
+            DocumentSnapshot last = querySnapshot.isEmpty() ? after
+                    : querySnapshot.getDocuments().get(querySnapshot.size() - 1);
+            return new CommentPage(comments, last, querySnapshot.size() == pageSize);
+        });
+    }
+
+    private CollectionReference commentsOf(String postId) {
+        return db.collection("posts").document(postId).collection("comments");
+    }
+
+    /**
+     * A page of comments along with the cursor for the next one.
+     */
+    public static class CommentPage {
+        private final List<Comment> comments;
+        private final DocumentSnapshot last;
+        private final boolean hasMore;
+
+        CommentPage(List<Comment> comments, DocumentSnapshot last, boolean hasMore) {
+            this.comments = comments;
+            this.last = last;
+            this.hasMore = hasMore;
+        }
+
+        /**
+         * Gets the comments of the page.
+         *
+         * @return Comments, oldest first.
+         */
+        public List<Comment> getComments() {
+            return comments;
+        }
+
+        /**
+         * Gets the cursor to pass when loading the next page.
+         *
+         * @return Last comment document read so far.
+         */
+        public DocumentSnapshot getLast() {
+            return last;
+        }
+
+        /**
+         * Checks whether more comments may follow.
+         *
+         * @return True if the page was full.
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+}
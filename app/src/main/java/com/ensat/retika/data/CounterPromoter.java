@@ -0,0 +1,221 @@
+/**
+ * Detects hot counters and switches them to sharded mode.
+ * A post's like counter or a user's subscriber counter is promoted once the write rate
+ * observed through successive server reads crosses a threshold, or once writes to it
+ * repeatedly fail with contention errors.
+ */
+package com.ensat.retika.data;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.ensat.retika.models.Post;
+import com.ensat.retika.models.User;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class CounterPromoter {
+
+    private static final double PROMOTE_WRITES_PER_SECOND = 0.5; // Half of what a single document sustains
+    private static final long MIN_SAMPLE_WINDOW_MS = 10 * 1000; // Closer observations give no meaningful rate
+    private static final int CONTENTION_LIMIT = 2; // Contended writes within the window before promotion
+    private static final long CONTENTION_WINDOW_MS = 60 * 1000;
+    private static final int MAX_TRACKED = 256; // Upper bound on tracked counters
+
+    private static CounterPromoter instance;
+
+    private final FirebaseFirestore db;
+    private final Map<String, Sample> samples; // Counter path to its last observation, eldest evicted first
+    private final Map<String, List<Long>> contention; // Counter path to times of contended writes
+    private final Set<String> promoted; // Counters promoted by this client
+
+    /**
+     * Returns the shared promoter.
+     *
+     * @return Application-wide CounterPromoter.
+     */
+    public static synchronized CounterPromoter getInstance() {
+        if (instance == null) {
+            instance = new CounterPromoter(FirebaseFirestore.getInstance());
+        }
+        return instance;
+    }
+
+    private CounterPromoter(FirebaseFirestore db) {
+        this.db = db;
+        this.promoted = new HashSet<>();
+        this.samples = new LinkedHashMap<String, Sample>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Sample> eldest) {
+                return size() > MAX_TRACKED;
+            }
+        };
+        this.contention = new LinkedHashMap<String, List<Long>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Long>> eldest) {
+                return size() > MAX_TRACKED;
+            }
+        };
+    }
+
+    /**
+     * Records the like count of a post as just read from the server.
+     *
+     * @param post Post read from the server, with its post ID set.
+     */
+    public void observePost(@NonNull Post post) {
+        if (post.getLikeShards() > 0 || post.getPostId() == null) return;
+        long likes = (post.getLikedBy() != null ? post.getLikedBy().size() : 0) + post.getLikeCount();
+        if (isHot("posts/" + post.getPostId(), likes)) {
+            promotePost(post.getPostId());
+        }
+    }
+
+    /**
+     * Records the subscriber count of a user as just read from the server.
+     *
+     * @param user User read from the server, with its user ID set.
+     */
+    public void observeUser(@NonNull User user) {
+        if (user.getSubscriberShards() > 0 || user.getUserId() == null) return;
+        if (isHot("users/" + user.getUserId(), user.getSubscribers())) {
+            promoteUser(user.getUserId());
+        }
+    }
+
+    /**
+     * Records a failed like write of a post.
+     *
+     * @param postId ID of the post.
+     * @param e      Cause of the failure.
+     */
+    public void onPostWriteFailed(@NonNull String postId, @NonNull Exception e) {
+        if (isContended("posts/" + postId, e)) {
+            promotePost(postId);
+        }
+    }
+
+    /**
+     * Records a failed follow write to a user.
+     *
+     * @param userId ID of the followed or unfollowed user.
+     * @param e      Cause of the failure.
+     */
+    public void onUserWriteFailed(@NonNull String userId, @NonNull Exception e) {
+        if (isContended("users/" + userId, e)) {
+            promoteUser(userId);
+        }
+    }
+
+    /**
+     * Switches the like counter of a post and its feed item to sharded mode.
+     *
+     * @param postId ID of the post.
+     */
+    private void promotePost(String postId) {
+        if (!markPromoted("posts/" + postId)) return;
+
+        WriteBatch batch = db.batch();
+        batch.update(db.collection("posts").document(postId), "likeShards", ShardedCounter.DEFAULT_SHARDS);
+        batch.set(db.collection(FeedProjection.COLLECTION).document(postId),
+                Collections.singletonMap("likeShards", ShardedCounter.DEFAULT_SHARDS), SetOptions.merge());
+        batch.commit().addOnFailureListener(e -> unmarkPromoted("posts/" + postId));
+    }
+
+    /**
+     * Switches the subscriber counter of a user to sharded mode.
+     *
+     * @param userId ID of the user.
+     */
+    private void promoteUser(String userId) {
+        if (!markPromoted("users/" + userId)) return;
+
+        db.collection("users").document(userId)
+                .update("subscriberShards", ShardedCounter.DEFAULT_SHARDS)
+                .addOnSuccessListener(aVoid -> UserProfileCache.getInstance().invalidate(userId))
+                .addOnFailureListener(e -> unmarkPromoted("users/" + userId));
+    }
+
+    /**
+     * Estimates the write rate of a counter from the change since its previous observation.
+     *
+     * @param path  Path of the counter's document.
+     * @param count Current value of the counter.
+     * @return True if the rate crossed the promotion threshold.
+     */
+    private synchronized boolean isHot(String path, long count) {
+        long now = SystemClock.elapsedRealtime();
+        Sample previous = samples.get(path);
+        if (previous == null) {
+            samples.put(path, new Sample(count, now));
+            return false;
+        }
+
+        long elapsed = now - previous.at;
+        if (elapsed < MIN_SAMPLE_WINDOW_MS) return false; // Keep the older sample for a longer window
+        samples.put(path, new Sample(count, now));
+        double writesPerSecond = Math.abs(count - previous.count) * 1000.0 / elapsed;
+        return writesPerSecond >= PROMOTE_WRITES_PER_SECOND;
+    }
+
+    /**
+     * Records a failed write and checks whether the counter is under contention.
+     *
+     * @param path Path of the counter's document.
+     * @param e    Cause of the failure.
+     * @return True if enough recent writes failed with contention errors.
+     */
+    private synchronized boolean isContended(String path, Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) return false;
+        FirebaseFirestoreException.Code code = ((FirebaseFirestoreException) e).getCode();
+        if (code != FirebaseFirestoreException.Code.ABORTED
+                && code != FirebaseFirestoreException.Code.RESOURCE_EXHAUSTED
+                && code != FirebaseFirestoreException.Code.DEADLINE_EXCEEDED) {
+            return false; // Not a sign of a hot document
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        List<Long> failures = contention.get(path);
+        if (failures == null) {
+            failures = new ArrayList<>();
+            contention.put(path, failures);
+        }
+        failures.add(now);
+        while (now - failures.get(0) > CONTENTION_WINDOW_MS) {
+            failures.remove(0);
+        }
+        return failures.size() >= CONTENTION_LIMIT;
+    }
+
+    private synchronized boolean markPromoted(String path) {
+        return promoted.add(path);
+    }
+
+    private synchronized void unmarkPromoted(String path) {
+        promoted.remove(path); // Allow a later retry
+    }
+
+    /**
+     * A counter value and when it was observed.
+     */
+    private static class Sample {
+        final long count;
+        final long at;
+
+        Sample(long count, long at) {
+            this.count = count;
+            this.at = at;
+        }
+    }
+}
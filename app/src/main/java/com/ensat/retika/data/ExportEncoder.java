@@ -0,0 +1,168 @@
+/**
+ * Encodes post images at the lowest cost that still looks right.
+ * Quality is searched between a floor and a ceiling for the highest level whose output fits
+ * a byte budget: above the ceiling the difference is not visible, below the floor artifacts are.
+ * New images are encoded as WebP, about a third smaller than JPEG at the same quality.
+ * Only pixels are encoded, so no EXIF metadata, GPS position included, is ever written.
+ */
+package com.ensat.retika.data;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public final class ExportEncoder {
+
+    public static final String WEBP_EXTENSION = ".webp"; // Extension of images encoded now
+    public static final String JPEG_EXTENSION = ".jpg"; // Extension of images encoded before WebP
+
+    static final int MIN_QUALITY = 50; // Below this, blocking and smearing become visible
+    static final int MAX_QUALITY = 90; // Above this, files grow with no visible gain
+    private static final int QUALITY_STEP = 10; // Five levels from the floor to the ceiling, so at most four encodes
+
+    /**
+     * Encodes at one quality level, so the search can run without a bitmap.
+     */
+    interface Compressor {
+        /**
+         * Writes an encoding of the image.
+         *
+         * @param quality Quality level, between {@link #MIN_QUALITY} and {@link #MAX_QUALITY}.
+         * @param out     Stream to write the encoding to.
+         * @throws IOException if the stream cannot be written.
+         */
+        void compress(int quality, OutputStream out) throws IOException;
+    }
+
+    private ExportEncoder() {}
+
+    /**
+     * Encodes a bitmap into a file, within a byte budget when the quality floor allows.
+     * The file is written under a temporary name and renamed once complete.
+     *
+     * @param bitmap   Bitmap to encode.
+     * @param target   File to write; its extension picks the format, see {@link #formatOf(File)}.
+     * @param maxBytes Byte budget of the file.
+     * @throws IOException if the file cannot be written.
+     */
+    @WorkerThread
+    public static void encode(@NonNull Bitmap bitmap, @NonNull File target, long maxBytes) throws IOException {
+        File partial = new File(target.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(partial)) {
+            encode(bitmap, formatOf(target), maxBytes, out);
+        }
+        if (!partial.renameTo(target)) {
+            throw new IOException("Cannot write " + target);
+        }
+    }
+
+    /**
+     * Encodes a bitmap into a stream, within a byte budget when the quality floor allows.
+     * Candidates are encoded in memory and only the chosen one is written out.
+     *
+     * @param bitmap   Bitmap to encode.
+     * @param format   Compression format.
+     * @param maxBytes Byte budget of the output.
+     * @param out      Stream to write the chosen encoding to.
+     * @return Quality of the chosen encoding.
+     * @throws IOException if the stream cannot be written.
+     */
+    @WorkerThread
+    public static int encode(@NonNull Bitmap bitmap, @NonNull Bitmap.CompressFormat format, long maxBytes,
+                             @NonNull OutputStream out) throws IOException {
+        return search((quality, stream) -> bitmap.compress(format, quality, stream), maxBytes, out);
+    }
+
+    /**
+     * Searches for the highest quality level whose encoding fits a byte budget and writes it.
+     * The ceiling is tried first, since most small images fit; the rest is a binary search.
+     * If even the floor is over budget, the floor's encoding is written anyway.
+     *
+     * @param compressor Encoder of the image.
+     * @param maxBytes   Byte budget of the output.
+     * @param out        Stream to write the chosen encoding to.
+     * @return Quality of the chosen encoding.
+     * @throws IOException if the stream cannot be written.
+     */
+    static int search(@NonNull Compressor compressor, long maxBytes, @NonNull OutputStream out) throws IOException {
+        ByteArrayOutputStream candidate = new ByteArrayOutputStream();
+        ByteArrayOutputStream best = null; // Highest encoding within the budget so far
+        ByteArrayOutputStream floor = null; // Encoding at the floor, kept in case nothing fits
+        int bestQuality = MIN_QUALITY;
+
+        // Search in steps: quality levels are QUALITY_STEP apart between the floor and the ceiling
+        int low = 0;
+        int high = (MAX_QUALITY - MIN_QUALITY) / QUALITY_STEP;
+        boolean triedCeiling = false;
+        while (low <= high) {
+            int level = triedCeiling ? (low + high + 1) / 2 : high; // Try the ceiling first, most small images fit
+            triedCeiling = true;
+            int quality = MIN_QUALITY + level * QUALITY_STEP;
+            candidate.reset();
+            compressor.compress(quality, candidate);
+            if (candidate.size() <= maxBytes) {
+                ByteArrayOutputStream swap = best != null ? best : new ByteArrayOutputStream();
+                best = candidate;
+                candidate = swap;
+                bestQuality = quality;
+                low = level + 1;
+            } else {
+                if (level == 0) {
+                    floor = candidate;
+                    candidate = new ByteArrayOutputStream();
+                }
+                high = level - 1;
+            }
+        }
+
+        if (best == null) {
+            best = floor; // Over budget even at the floor; the search always ends there when nothing fits
+        }
+        best.writeTo(out);
+        return bestQuality;
+    }
+
+    /**
+     * Returns the format of an image file from its extension.
+     *
+     * @param file Image file.
+     * @return WebP for .webp files, JPEG otherwise.
+     */
+    @SuppressWarnings("deprecation")
+    public static Bitmap.CompressFormat formatOf(@NonNull File file) {
+        if (!file.getName().endsWith(WEBP_EXTENSION)) {
+            return Bitmap.CompressFormat.JPEG;
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.WEBP; // Lossy when the quality is below 100 before Android 11
+    }
+
+    /**
+     * Returns the MIME type of an image file from its extension.
+     *
+     * @param file Image file.
+     * @return image/webp for .webp files, image/jpeg otherwise.
+     */
+    public static String contentTypeOf(@NonNull File file) {
+        return file.getName().endsWith(WEBP_EXTENSION) ? "image/webp" : "image/jpeg";
+    }
+
+    /**
+     * Returns the extension of an image file.
+     *
+     * @param file Image file.
+     * @return {@link #WEBP_EXTENSION} or {@link #JPEG_EXTENSION}.
+     */
+    public static String extensionOf(@NonNull File file) {
+        return file.getName().endsWith(WEBP_EXTENSION) ? WEBP_EXTENSION : JPEG_EXTENSION;
+    }
+}
@@ -0,0 +1,253 @@
+/**
+ * Writes the feedItems projection of posts.
+ * A feed item holds only what a feed row shows: the caption, image, counters, the first comments
+ * and the author's username and avatar, so the home feed costs one small document read per row.
+ * Feed items are written next to their post and repaired when they drift from it.
+ * Posts created before the projection existed are backfilled once by the admin script in
+ * functions/, which then sets a marker; until the marker is set, the feed keeps reading the
+ * posts collection, so no post is ever missing from it. Clients only read the marker.
+ */
+package com.ensat.retika.data;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ensat.retika.models.Comment;
+import com.ensat.retika.models.Post;
+import com.ensat.retika.models.User;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+public class FeedProjection {
+
+    public static final String COLLECTION = "feedItems";
+    public static final int RECENT_COMMENTS = 2; // Comments denormalized into each feed item
+    private static final int MAX_BATCH_WRITES = 500; // Firestore limit on writes per batch
+
+    private static final Set<String> repairedAuthors = new HashSet<>(); // Authors repaired this session
+    private static volatile boolean backfilled = false; // Set once the backfill marker was seen
+
+    private final FirebaseFirestore db;
+    private final CommentRepository commentRepository;
+
+    /**
+     * Constructor for the FeedProjection.
+     *
+     * @param db Firestore instance to read from and write to.
+     */
+    public FeedProjection(@NonNull FirebaseFirestore db) {
+        this.db = db;
+        this.commentRepository = new CommentRepository(db);
+    }
+
+    /**
+     * Returns the feed item document of a post.
+     *
+     * @param postId ID of the post.
+     * @return Reference to the feed item.
+     */
+    public DocumentReference feedItemOf(@NonNull String postId) {
+        return db.collection(COLLECTION).document(postId);
+    }
+
+    /**
+     * Returns the document marking the end of the backfill of the projection.
+     *
+     * @return Reference to the marker.
+     */
+    private DocumentReference backfillMarker() {
+        return db.collection("meta").document("feedProjection");
+    }
+
+    /**
+     * Checks whether every post created before the projection has a feed item.
+     * The marker is read until it is found, then remembered for the session.
+     *
+     * @return Task resolving to true once the projection is complete; false if it is not,
+     * or if the marker cannot be read.
+     */
+    public Task<Boolean> isBackfilled() {
+        if (backfilled) {
+            return Tasks.forResult(true);
+        }
+        return backfillMarker().get().continueWith(task -> {
+            boolean done = task.isSuccessful() && Boolean.TRUE.equals(task.getResult().getBoolean("backfilled"));
+            if (done) {
+                backfilled = true;
+            }
+            return done;
+        });
+    }
+
+    /**
+     * Adds the full feed item of a new post to a batch, so it is written with the post.
+     *
+     * @param batch  Batch that also writes the post.
+     * @param post   Post being written, with its ID set.
+     * @param author Author of the post, or null if unknown.
+     */
+    public void addToBatch(@NonNull WriteBatch batch, @NonNull Post post, @Nullable User author) {
+        batch.set(feedItemOf(post.getPostId()), project(post, author, Collections.emptyList()));
+    }
+
+    /**
+     * Adds a new comment to a post's feed item in a batch.
+     * The item is merged rather than updated, so posts whose feed item does not exist yet
+     * do not fail the batch; such partial items have no timestamp and stay out of the feed
+     * until they are repaired.
+     *
+     * @param batch     Batch that also writes the comment.
+     * @param postId    ID of the commented post.
+     * @param comment   New comment.
+     * @param inPreview True if the comment is one of the post's first comments.
+     */
+    public void onCommentAdded(@NonNull WriteBatch batch, @NonNull String postId, @NonNull Comment comment, boolean inPreview) {
+        Map<String, Object> update = new HashMap<>();
+        update.put("commentCount", FieldValue.increment(1));
+        if (inPreview) {
+            update.put("recentComments", FieldValue.arrayUnion(comment));
+        }
+        batch.set(feedItemOf(postId), update, SetOptions.merge());
+    }
+
+    /**
+     * Changes the like counter of a post's feed item in a batch.
+     *
+     * @param batch  Batch that also writes the like.
+     * @param postId ID of the liked post.
+     * @param delta  +1 for a like, -1 for an unlike.
+     */
+    public void onLikeChanged(@NonNull WriteBatch batch, @NonNull String postId, long delta) {
+        Map<String, Object> update = new HashMap<>();
+        update.put("likeCount", FieldValue.increment(delta));
+        batch.set(feedItemOf(postId), update, SetOptions.merge());
+    }
+
+    /**
+     * Repairs the feed items of an author's posts, at most once per session and author.
+     * Missing items are written in full, e.g. for posts created before the projection existed,
+     * and items whose author username or avatar no longer match the profile are updated.
+     *
+     * @param author Up-to-date profile of the author, with its user ID set.
+     * @param posts  All posts of the author, with their post IDs set.
+     * @return Task completing once every repair is committed.
+     */
+    public Task<Void> repair(@NonNull User author, @NonNull List<Post> posts) {
+        synchronized (repairedAuthors) {
+            if (!repairedAuthors.add(author.getUserId())) {
+                return Tasks.forResult(null);
+            }
+        }
+
+        return db.collection(COLLECTION).whereEqualTo("userId", author.getUserId()).get()
+                .continueWithTask(task -> {
+                    if (!task.isSuccessful()) {
+                        synchronized (repairedAuthors) {
+                            repairedAuthors.remove(author.getUserId()); // Retry on the next visit
+                        }
+                        return Tasks.forException(task.getException());
+                    }
+
+                    Map<String, DocumentSnapshot> items = new HashMap<>();
+                    for (DocumentSnapshot doc : task.getResult()) {
+                        items.put(doc.getId(), doc);
+                    }
+
+                    List<Task<Void>> writes = new ArrayList<>();
+                    WriteBatch batch = db.batch();
+                    int batchSize = 0;
+                    for (Post post : posts) {
+                        DocumentSnapshot item = items.get(post.getPostId());
+                        if (item == null || item.get("timestamp") == null) {
+                            writes.add(writeMissing(post, author));
+                        } else if (!Objects.equals(item.getString("authorUsername"), author.getUsername())
+                                || !Objects.equals(item.getString("authorAvatarUrl"), author.getProfilePictureUrl())) {
+                            batch.update(item.getReference(),
+                                    "authorUsername", author.getUsername(),
+                                    "authorAvatarUrl", author.getProfilePictureUrl());
+                            if (++batchSize == MAX_BATCH_WRITES) {
+                                writes.add(batch.commit());
+                                batch = db.batch();
+                                batchSize = 0;
+                            }
+                        }
+                    }
+                    if (batchSize > 0) {
+                        writes.add(batch.commit());
+                    }
+                    return Tasks.whenAll(writes);
+                });
+    }
+
+    /**
+     * Writes the full feed item of a post that has none yet.
+     * The first comments come from the embedded legacy comments, completed from the
+     * comments subcollection when there are fewer than needed.
+     *
+     * @param post   Post to project.
+     * @param author Author of the post, or null if unknown.
+     * @return Task completing once the feed item is written.
+     */
+    private Task<Void> writeMissing(Post post, @Nullable User author) {
+        List<Comment> recent = new ArrayList<>();
+        if (post.getComments() != null) {
+            recent.addAll(post.getComments().subList(0, Math.min(RECENT_COMMENTS, post.getComments().size())));
+        }
+        if (recent.size() == RECENT_COMMENTS || post.getCommentCount() == 0) {
+            return feedItemOf(post.getPostId()).set(project(post, author, recent));
+        }
+
+        return commentRepository.loadComments(post.getPostId(), null, RECENT_COMMENTS - recent.size())
+                .continueWithTask(task -> {
+                    if (task.isSuccessful()) {
+                        recent.addAll(task.getResult().getComments());
+                    }
+                    return feedItemOf(post.getPostId()).set(project(post, author, recent));
+                });
+    }
+
+    /**
+     * Builds the feed item of a post.
+     * The field names match {@link Post}, so feed items read back as posts.
+     *
+     * @param post           Post to project.
+     * @param author         Author of the post, or null if unknown.
+     * @param recentComments First comments of the post.
+     * @return Feed item fields.
+     */
+    private Map<String, Object> project(Post post, @Nullable User author, List<Comment> recentComments) {
+        long legacyComments = post.getComments() != null ? post.getComments().size() : 0;
+        long likes = (post.getLikedBy() != null ? post.getLikedBy().size() : 0) + post.getLikeCount();
+
+        Map<String, Object> item = new HashMap<>();
+        item.put("postId", post.getPostId());
+        item.put("userId", post.getUserId());
+        item.put("imageUrl", post.getImageUrl());
+        item.put("thumbnailUrl", post.getThumbnailUrl());
+        item.put("feedImageUrl", post.getFeedImageUrl());
+        item.put("caption", post.getCaption());
+        item.put("timestamp", post.getTimestamp());
+        item.put("likeCount", likes);
+        item.put("likeShards", post.getLikeShards());
+        item.put("commentCount", legacyComments + post.getCommentCount());
+        item.put("recentComments", recentComments);
+        item.put("authorUsername", author != null ? author.getUsername() : null);
+        item.put("authorAvatarUrl", author != null ? author.getProfilePictureUrl() : null);
+        return item;
+    }
+}
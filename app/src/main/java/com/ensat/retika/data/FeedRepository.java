@@ -0,0 +1,565 @@
+/**
+ * Holds the home feed: the loaded posts, the pagination cursor and the scroll position.
+ * It lives in a ViewModel, so the feed survives the fragment view being destroyed
+ * and can be shown again without any Firestore read.
+ * Pages are served stale-while-revalidate: the Firestore local cache is rendered first,
+ * then the server result is reconciled into it by post ID, unless the server confirmed
+ * the same page within the last minute.
+ * Posts are read from the feedItems projection, which carries the author's name and avatar,
+ * so a row costs a single small document read. Until the projection is backfilled with the
+ * posts created before it, the feed reads the posts collection instead.
+ * Posts the user is publishing are shown on top right away, from their local image,
+ * until the server returns them.
+ */
+package com.ensat.retika.data;
+
+import android.os.Parcelable;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ensat.retika.models.Post;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class FeedRepository {
+
+    /**
+     * Listener for feed changes, normally the fragment currently showing the feed.
+     */
+    public interface Listener {
+        /**
+         * Called when the list of posts changed.
+         *
+         * @param posts Snapshot of the posts, newest first.
+         */
+        void onPostsChanged(List<Post> posts);
+
+        /**
+         * Called when a requested page finished loading.
+         *
+         * @param itemCount Number of posts in the page.
+         */
+        void onPageLoaded(int itemCount);
+
+        /**
+         * Called when a requested page failed to load.
+         *
+         * @param e Cause of the failure.
+         */
+        void onPageFailed(Exception e);
+
+        /**
+         * Called when the number of buffered posts newer than the head changed.
+         *
+         * @param count Number of new posts waiting to be shown.
+         */
+        void onNewPostsAvailable(int count);
+    }
+
+    private static final int MAX_NEWER_POSTS = 30; // Beyond this, showing new posts reloads the feed instead
+    private static final long FRESHNESS_MS = 60 * 1000; // Pages validated within this window are not re-read
+
+    private final FirebaseFirestore db;
+    private final FeedProjection feedProjection;
+    private String feedCollection; // Collection the loaded pages come from, null until the first page
+    private final List<Page> pages; // Loaded pages, newest first
+    private final Map<String, Long> validatedPages; // Page start cursor to when the server last confirmed it
+    private DocumentSnapshot lastVisiblePost; // Tracks the last loaded post for pagination
+    private boolean loading = false; // Indicates whether a page is currently loading
+    private int loadGeneration = 0; // Incremented on every reload so stale pages are dropped
+    private Parcelable scrollState; // Saved state of the feed's layout manager
+    private Listener listener;
+    private ListenerRegistration newPostsRegistration; // Snapshot listener for posts newer than the head
+    private List<Post> pendingNewPosts; // New posts buffered until the user asks to see them
+    private boolean pendingOverflow = false; // More new posts arrived than the listener tracks
+    private final List<Post> localPosts; // Posts being published from this device, newest first
+
+    /**
+     * Constructor for the FeedRepository.
+     *
+     * @param db Firestore instance to read from.
+     */
+    public FeedRepository(@NonNull FirebaseFirestore db) {
+        this.db = db;
+        this.feedProjection = new FeedProjection(db);
+        this.pages = new ArrayList<>();
+        this.validatedPages = new HashMap<>();
+        this.pendingNewPosts = new ArrayList<>();
+        this.localPosts = new ArrayList<>();
+    }
+
+    /**
+     * Sets the listener for feed changes.
+     *
+     * @param listener Listener to notify, or null to detach the current one.
+     */
+    public void setListener(@Nullable Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns a snapshot of the loaded posts.
+     *
+     * @return Posts being published, then loaded posts, newest first.
+     */
+    public List<Post> getPosts() {
+        List<Post> posts = new ArrayList<>(localPosts);
+        for (Page page : pages) {
+            posts.addAll(page.posts);
+        }
+        return posts;
+    }
+
+    /**
+     * Shows a post the user is publishing at the top of the feed before it reaches the server.
+     *
+     * @param post New post, with its image URL pointing to the local image.
+     */
+    public void insertLocalPost(@NonNull Post post) {
+        localPosts.add(0, post);
+        if (listener != null) listener.onPostsChanged(getPosts());
+    }
+
+    /**
+     * Points a post being published to its uploaded images.
+     * The row is rebound with the remote URLs, which Glide already has in its disk cache.
+     *
+     * @param postId       ID of the post.
+     * @param imageUrl     Download URL of the original image.
+     * @param thumbnailUrl Download URL of the grid-sized rendition.
+     * @param feedImageUrl Download URL of the feed-sized rendition.
+     */
+    public void onLocalPostUploaded(@NonNull String postId, @NonNull String imageUrl,
+                                    @Nullable String thumbnailUrl, @Nullable String feedImageUrl) {
+        for (int i = 0; i < localPosts.size(); i++) {
+            Post local = localPosts.get(i);
+            if (!postId.equals(local.getPostId())) continue;
+
+            // A new object, so the adapter's diff sees the change
+            Post uploaded = new Post(postId, local.getUserId(), imageUrl, local.getCaption(), local.getTimestamp());
+            uploaded.setThumbnailUrl(thumbnailUrl);
+            uploaded.setFeedImageUrl(feedImageUrl);
+            uploaded.setAuthorUsername(local.getAuthorUsername());
+            uploaded.setAuthorAvatarUrl(local.getAuthorAvatarUrl());
+            localPosts.set(i, uploaded);
+            if (listener != null) listener.onPostsChanged(getPosts());
+            return;
+        }
+    }
+
+    /**
+     * Removes a post being published, e.g. because publishing it failed.
+     *
+     * @param postId ID of the post.
+     */
+    public void removeLocalPost(@NonNull String postId) {
+        if (removeLocalPosts(Collections.singleton(postId)) && listener != null) {
+            listener.onPostsChanged(getPosts());
+        }
+    }
+
+    /**
+     * Drops the local version of posts the server returned, so each post is shown once.
+     *
+     * @param posts Posts read from the server.
+     */
+    private void dropLocalCopies(List<Post> posts) {
+        if (localPosts.isEmpty()) return;
+        Set<String> ids = new HashSet<>();
+        for (Post post : posts) {
+            ids.add(post.getPostId());
+        }
+        removeLocalPosts(ids);
+    }
+
+    private boolean removeLocalPosts(Set<String> postIds) {
+        boolean removed = false;
+        Iterator<Post> iterator = localPosts.iterator();
+        while (iterator.hasNext()) {
+            if (postIds.contains(iterator.next().getPostId())) {
+                iterator.remove();
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Checks whether no post has been loaded yet.
+     *
+     * @return True if the feed is empty.
+     */
+    public boolean isEmpty() {
+        // Posts being published do not count, the feed still has to be loaded
+        for (Page page : pages) {
+            if (!page.posts.isEmpty()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stores the scroll position of the feed when its view goes away.
+     *
+     * @param scrollState Saved state of the layout manager.
+     */
+    public void saveScrollState(@Nullable Parcelable scrollState) {
+        this.scrollState = scrollState;
+    }
+
+    /**
+     * Returns the scroll position saved by {@link #saveScrollState(Parcelable)}.
+     *
+     * @return Saved state of the layout manager, or null if none was saved.
+     */
+    @Nullable
+    public Parcelable getScrollState() {
+        return scrollState;
+    }
+
+    /**
+     * Loads the page after the last loaded post.
+     * A full page found in the local cache is shown at once and then revalidated against
+     * the server; otherwise the page is read normally.
+     * Does nothing while another page is loading; the listener hears about that one instead.
+     *
+     * @param pageSize Number of posts to load.
+     */
+    public void loadNextPage(int pageSize) {
+        if (loading) return;
+        loading = true;
+        int generation = loadGeneration;
+
+        if (feedCollection != null) {
+            loadPage(pageSize, generation);
+            return;
+        }
+        // Pick the collection once per load from the top, so every cursor belongs to it
+        feedProjection.isBackfilled().addOnCompleteListener(task -> {
+            if (generation != loadGeneration) return; // The feed was reloaded meanwhile
+            if (task.isSuccessful() && Boolean.TRUE.equals(task.getResult())) {
+                feedCollection = FeedProjection.COLLECTION;
+            } else {
+                feedCollection = "posts"; // A later reload switches to the projection once backfilled
+            }
+            loadPage(pageSize, generation);
+        });
+    }
+
+    /**
+     * Loads the page after the last loaded post from the feed collection.
+     *
+     * @param pageSize   Number of posts to load.
+     * @param generation Load generation the read belongs to.
+     */
+    private void loadPage(int pageSize, int generation) {
+        Query query = db.collection(feedCollection).orderBy("timestamp", Query.Direction.DESCENDING).limit(pageSize);
+        if (lastVisiblePost != null) {
+            query = query.startAfter(lastVisiblePost);
+        }
+        Query pageQuery = query;
+        String pageKey = feedCollection + "/" + (lastVisiblePost != null ? lastVisiblePost.getId() : "");
+
+        pageQuery.get(Source.CACHE).addOnCompleteListener(cacheTask -> {
+            if (generation != loadGeneration) return; // The feed was reloaded meanwhile
+
+            QuerySnapshot cached = cacheTask.isSuccessful() ? cacheTask.getResult() : null;
+            if (cached == null || cached.size() < pageSize) {
+                // A short cached page may just be incomplete, so it cannot mark the end of the feed
+                loadFromServer(pageQuery, pageKey, generation);
+                return;
+            }
+
+            Long validatedAt = validatedPages.get(pageKey);
+            boolean fresh = validatedAt != null && SystemClock.elapsedRealtime() - validatedAt <= FRESHNESS_MS;
+
+            Page page = appendPage(pageQuery, pageKey, cached, toPosts(cached), fresh ? validatedAt : 0);
+            loading = false;
+            if (listener != null) {
+                listener.onPostsChanged(getPosts());
+                listener.onPageLoaded(cached.size());
+            }
+            if (!fresh) {
+                revalidate(page);
+            }
+        });
+    }
+
+    /**
+     * Revalidates the loaded pages that were only ever served from the cache,
+     * e.g. because the server could not be reached when they were loaded.
+     * Pages the server already confirmed cost nothing.
+     */
+    public void revalidateUnconfirmedPages() {
+        for (Page page : new ArrayList<>(pages)) {
+            if (page.query != null && page.validatedAt == 0) {
+                revalidate(page);
+            }
+        }
+    }
+
+    /**
+     * Reads a page without serving it from the cache first.
+     *
+     * @param query      Query of the page.
+     * @param pageKey    Start cursor key of the page.
+     * @param generation Load generation the read belongs to.
+     */
+    private void loadFromServer(Query query, String pageKey, int generation) {
+        query.get().addOnSuccessListener(queryDocumentSnapshots -> {
+            if (generation != loadGeneration) return;
+
+            if (queryDocumentSnapshots.isEmpty()) {
+                loading = false;
+                if (listener != null) listener.onPageLoaded(0);
+                return;
+            }
+
+            long validatedAt = queryDocumentSnapshots.getMetadata().isFromCache() ? 0 : SystemClock.elapsedRealtime();
+            List<Post> loaded = toPosts(queryDocumentSnapshots);
+            if (validatedAt != 0) {
+                observeCounters(loaded);
+            }
+            appendPage(query, pageKey, queryDocumentSnapshots, loaded, validatedAt);
+            loading = false;
+            if (listener != null) {
+                listener.onPostsChanged(getPosts());
+                listener.onPageLoaded(queryDocumentSnapshots.size());
+            }
+        }).addOnFailureListener(e -> {
+            if (generation != loadGeneration) return;
+            loading = false;
+            if (listener != null) listener.onPageFailed(e);
+        });
+    }
+
+    /**
+     * Re-reads a page from the server and reconciles the result into the feed.
+     * Failures are ignored, the page simply stays as it was.
+     *
+     * @param page Page to revalidate.
+     */
+    private void revalidate(Page page) {
+        int generation = loadGeneration;
+        page.query.get(Source.SERVER).addOnSuccessListener(queryDocumentSnapshots -> {
+            if (generation != loadGeneration || !pages.contains(page)) return;
+
+            List<Post> fresh = toPosts(queryDocumentSnapshots);
+            observeCounters(fresh);
+            reconcile(page, fresh);
+            page.validatedAt = SystemClock.elapsedRealtime();
+            validatedPages.put(page.key, page.validatedAt);
+            if (page == pages.get(pages.size() - 1) && !queryDocumentSnapshots.isEmpty()) {
+                lastVisiblePost = queryDocumentSnapshots.getDocuments().get(queryDocumentSnapshots.size() - 1);
+            }
+            if (listener != null) listener.onPostsChanged(getPosts());
+        });
+    }
+
+    /**
+     * Replaces the posts of a page with the server's version, matched by post ID.
+     * Posts that changed are replaced, posts that are gone are dropped and new ones are added,
+     * except those already shown by another page.
+     *
+     * @param page  Page to update.
+     * @param fresh Posts returned by the server for the page's query.
+     */
+    private void reconcile(Page page, List<Post> fresh) {
+        Set<String> elsewhere = new HashSet<>();
+        for (Page other : pages) {
+            if (other == page) continue;
+            for (Post post : other.posts) {
+                elsewhere.add(post.getPostId());
+            }
+        }
+
+        List<Post> merged = new ArrayList<>();
+        for (Post post : fresh) {
+            if (!elsewhere.contains(post.getPostId())) {
+                merged.add(post);
+            }
+        }
+        page.posts = merged;
+        dropLocalCopies(merged);
+    }
+
+    /**
+     * Adds a page at the end of the feed and moves the cursor past it.
+     *
+     * @param query         Query that produced the page.
+     * @param key           Start cursor key of the page.
+     * @param querySnapshot Results of the query, not empty.
+     * @param posts         Posts converted from the results.
+     * @param validatedAt   When the server confirmed the page, or 0 if it came from the cache.
+     * @return The added page.
+     */
+    private Page appendPage(Query query, String key, QuerySnapshot querySnapshot, List<Post> posts, long validatedAt) {
+        lastVisiblePost = querySnapshot.getDocuments().get(querySnapshot.size() - 1);
+        Page page = new Page(query, key, posts, validatedAt);
+        if (validatedAt != 0) {
+            validatedPages.put(key, validatedAt);
+        }
+        pages.add(page);
+        dropLocalCopies(posts);
+        return page;
+    }
+
+    /**
+     * Drops every loaded post and the cursor, so the next page starts from the newest post.
+     * Posts being published stay on top until the server returns them.
+     */
+    public void clear() {
+        stopDeltaSync();
+        loadGeneration++;
+        loading = false;
+        feedCollection = null; // Checked again, the backfill may have completed
+        lastVisiblePost = null;
+        scrollState = null;
+        pages.clear();
+        if (listener != null) listener.onPostsChanged(getPosts());
+    }
+
+    /**
+     * Starts listening for posts newer than the head of the feed.
+     * Only documents that change are read after the first snapshot, and new posts are
+     * buffered instead of being inserted, so the list never jumps under the user.
+     */
+    public void startDeltaSync() {
+        if (newPostsRegistration != null || isEmpty()) return;
+        long headTimestamp = getPosts().get(localPosts.size()).getTimestamp(); // Newest post read from the server
+
+        newPostsRegistration = db.collection(feedCollection)
+                .whereGreaterThan("timestamp", headTimestamp)
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .limit(MAX_NEWER_POSTS)
+                .addSnapshotListener((querySnapshot, e) -> {
+                    if (e != null || querySnapshot == null) return; // Showing new posts is best effort
+
+                    pendingNewPosts = withoutLocalPosts(toPosts(querySnapshot));
+                    pendingOverflow = querySnapshot.size() >= MAX_NEWER_POSTS;
+                    if (listener != null) listener.onNewPostsAvailable(pendingNewPosts.size());
+                });
+    }
+
+    /**
+     * Stops listening for new posts, e.g. while the feed is not visible.
+     */
+    public void stopDeltaSync() {
+        if (newPostsRegistration != null) {
+            newPostsRegistration.remove();
+            newPostsRegistration = null;
+        }
+        pendingNewPosts = new ArrayList<>();
+        pendingOverflow = false;
+    }
+
+    /**
+     * Splices the buffered new posts in at the top of the feed, without re-reading loaded pages.
+     * Listening then continues from the new head.
+     *
+     * @param onReloadNeeded Called after the feed was cleared because more posts arrived
+     *                       than were buffered, so it has to be reloaded from the top.
+     */
+    public void showNewPosts(@NonNull Runnable onReloadNeeded) {
+        if (pendingOverflow) {
+            clear(); // The gap may be larger than what was buffered
+            if (listener != null) listener.onNewPostsAvailable(0);
+            onReloadNeeded.run();
+            return;
+        }
+
+        List<Post> newer = pendingNewPosts;
+        if (newer.isEmpty()) return;
+
+        stopDeltaSync();
+        if (listener != null) listener.onNewPostsAvailable(0);
+
+        // Spliced-in posts come from the server and have no query of their own to revalidate
+        pages.add(0, new Page(null, null, newer, SystemClock.elapsedRealtime()));
+        dropLocalCopies(newer);
+        if (listener != null) listener.onPostsChanged(getPosts());
+        startDeltaSync();
+    }
+
+    /**
+     * Filters out posts already shown on top as posts being published.
+     *
+     * @param posts Posts read from the server.
+     * @return The posts this device is not publishing.
+     */
+    private List<Post> withoutLocalPosts(List<Post> posts) {
+        if (localPosts.isEmpty()) return posts;
+        Set<String> local = new HashSet<>();
+        for (Post post : localPosts) {
+            local.add(post.getPostId());
+        }
+        List<Post> others = new ArrayList<>();
+        for (Post post : posts) {
+            if (!local.contains(post.getPostId())) {
+                others.add(post);
+            }
+        }
+        return others;
+    }
+
+    /**
+     * Converts query results into posts, with their post IDs set.
+     *
+     * @param querySnapshot Query results.
+     * @return Posts in query order.
+     */
+    private List<Post> toPosts(QuerySnapshot querySnapshot) {
+        List<Post> page = new ArrayList<>();
+        for (DocumentSnapshot doc : querySnapshot) {
+            Post post = doc.toObject(Post.class);
+            if (post != null) {
+                post.setPostId(doc.getId()); // Set the postId using the document ID
+                page.add(post);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * Reports the like counters of posts just read from the server, so hot posts get sharded.
+     *
+     * @param posts Posts read from the server.
+     */
+    private void observeCounters(List<Post> posts) {
+        CounterPromoter promoter = CounterPromoter.getInstance();
+        for (Post post : posts) {
+            promoter.observePost(post);
+        }
+    }
+
+    /**
+     * A page of the feed, along with what is needed to revalidate it.
+     */
+    private static class Page {
+        final Query query; // Query that produced the page, null for spliced-in new posts
+        final String key; // Collection and ID of the document the page starts after, e.g. "feedItems/" for the first page
+        List<Post> posts;
+        long validatedAt; // When the server last confirmed the page, 0 if only read from the cache
+
+        Page(Query query, String key, List<Post> posts, long validatedAt) {
+            this.query = query;
+            this.key = key;
+            this.posts = posts;
+            this.validatedAt = validatedAt;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * In-memory view of the accounts the current user follows.
+ * The following list is read once per session and kept as a set,
+ * so follow buttons can be bound without any Firestore read.
+ */
+package com.ensat.retika.data;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class FollowGraph {
+
+    /**
+     * Listener notified when the follow state of one or more users changes.
+     */
+    public interface Listener {
+        /**
+         * Called when the follow state of a user changed.
+         *
+         * @param userId ID of the user, or null if the whole graph was (re)loaded.
+         */
+        void onFollowStateChanged(String userId);
+    }
+
+    private static FollowGraph instance;
+
+    private final FirebaseFirestore db;
+    private final FollowService followService;
+    private final Set<String> following; // IDs of the users the current user follows
+    private final List<Listener> listeners;
+    private String ownerId; // ID of the user whose following list is loaded
+    private Task<Void> loadTask; // Load of the following list, shared by all callers
+
+    /**
+     * Returns the shared follow graph.
+     *
+     * @return Application-wide FollowGraph.
+     */
+    public static synchronized FollowGraph getInstance() {
+        if (instance == null) {
+            instance = new FollowGraph(FirebaseFirestore.getInstance());
+        }
+        return instance;
+    }
+
+    private FollowGraph(FirebaseFirestore db) {
+        this.db = db;
+        this.followService = new FollowService(db);
+        this.following = new HashSet<>();
+        this.listeners = new ArrayList<>();
+    }
+
+    /**
+     * Loads the following list of the current user, once per session.
+     * Calling it again for the same user returns the same task without a new read.
+     *
+     * @param currentUserId ID of the currently logged-in user.
+     * @return Task completing once the following list is available.
+     */
+    public synchronized Task<Void> load(@NonNull String currentUserId) {
+        if (currentUserId.equals(ownerId) && loadTask != null) {
+            return loadTask;
+        }
+
+        reset();
+        ownerId = currentUserId;
+
+        TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+        loadTask = source.getTask();
+        db.collection("users").document(currentUserId).get()
+                .addOnSuccessListener(documentSnapshot -> {
+                    synchronized (this) {
+                        if (!currentUserId.equals(ownerId)) return; // Session changed meanwhile
+                        List<String> ids = (List<String>) documentSnapshot.get("following");
+                        if (ids != null) {
+                            following.addAll(ids);
+                        }
+                        // Follows still waiting in the outbox are not on the server yet
+                        for (Outbox.Entry entry : Outbox.getInstance().pending(FollowService.OUTBOX_TYPE)) {
+                            JSONObject payload = entry.getPayload();
+                            if (!currentUserId.equals(payload.optString("followerId"))) continue;
+                            if (payload.optBoolean("follow")) {
+                                following.add(payload.optString("followeeId"));
+                            } else {
+                                following.remove(payload.optString("followeeId"));
+                            }
+                        }
+                    }
+                    source.setResult(null);
+                    notifyListeners(null);
+                })
+                .addOnFailureListener(e -> {
+                    synchronized (this) {
+                        if (currentUserId.equals(ownerId)) {
+                            loadTask = null; // Allow a later retry
+                        }
+                    }
+                    source.setException(e);
+                });
+        return loadTask;
+    }
+
+    /**
+     * Checks whether the following list has been loaded.
+     *
+     * @return True once the following list is available.
+     */
+    public synchronized boolean isLoaded() {
+        return loadTask != null && loadTask.isSuccessful();
+    }
+
+    /**
+     * Checks whether the current user follows a user.
+     *
+     * @param userId ID of the user.
+     * @return True if the current user follows them.
+     */
+    public synchronized boolean isFollowing(String userId) {
+        return following.contains(userId);
+    }
+
+    /**
+     * Follows or unfollows a user.
+     * The local set is updated right away and rolled back if the write fails.
+     *
+     * @param userId ID of the user to follow or unfollow.
+     * @return The new follow state.
+     */
+    public boolean toggle(@NonNull String userId) {
+        String followerId;
+        boolean nowFollowing;
+        synchronized (this) {
+            if (ownerId == null) return false; // Nothing to write against before the graph is loaded
+            followerId = ownerId;
+            nowFollowing = !following.contains(userId);
+            if (nowFollowing) {
+                following.add(userId);
+            } else {
+                following.remove(userId);
+            }
+        }
+        notifyListeners(userId);
+
+        followService.setFollowing(followerId, userId, nowFollowing)
+                .addOnSuccessListener(aVoid -> UserProfileCache.getInstance().invalidate(userId)) // Follower count changed
+                .addOnFailureListener(e -> rollback(userId, nowFollowing));
+        return nowFollowing;
+    }
+
+    /**
+     * Forgets the loaded following list, e.g. when the user logs out.
+     */
+    public synchronized void reset() {
+        following.clear();
+        ownerId = null;
+        loadTask = null;
+    }
+
+    /**
+     * Registers a listener for follow state changes.
+     *
+     * @param listener Listener to add.
+     */
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener for follow state changes.
+     *
+     * @param listener Listener to remove.
+     */
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reverts an optimistic toggle after a failed write.
+     *
+     * @param userId      ID of the user.
+     * @param failedState The follow state that failed to be written.
+     */
+    private void rollback(String userId, boolean failedState) {
+        synchronized (this) {
+            if (following.contains(userId) != failedState) return; // Already reverted or toggled again
+            if (failedState) {
+                following.remove(userId);
+            } else {
+                following.add(userId);
+            }
+        }
+        notifyListeners(userId);
+    }
+
+    private void notifyListeners(String userId) {
+        List<Listener> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(listeners);
+        }
+        for (Listener listener : snapshot) {
+            listener.onFollowStateChanged(userId);
+        }
+    }
+}
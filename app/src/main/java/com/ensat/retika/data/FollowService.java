@@ -0,0 +1,173 @@
+/**
+ * Writes follow and unfollow edges to Firestore.
+ * Both sides of the edge and the follower counter are updated in one atomic batch,
+ * using field transforms so no read is needed and concurrent followers never overwrite each other.
+ */
+package com.ensat.retika.data;
+
+import androidx.annotation.NonNull;
+
+import com.ensat.retika.models.User;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class FollowService {
+
+    public static final String OUTBOX_TYPE = "follow";
+
+    private final FirebaseFirestore db;
+
+    /**
+     * Constructor for the FollowService.
+     *
+     * @param db Firestore instance to write to.
+     */
+    public FollowService(@NonNull FirebaseFirestore db) {
+        this.db = db;
+    }
+
+    /**
+     * Makes a user follow another user.
+     *
+     * @param followerId ID of the user who follows.
+     * @param followeeId ID of the user being followed.
+     * @return Task completing once the batch is committed.
+     */
+    public Task<Void> follow(@NonNull String followerId, @NonNull String followeeId) {
+        return setFollowing(followerId, followeeId, true);
+    }
+
+    /**
+     * Makes a user stop following another user.
+     *
+     * @param followerId ID of the user who unfollows.
+     * @param followeeId ID of the user being unfollowed.
+     * @return Task completing once the batch is committed.
+     */
+    public Task<Void> unfollow(@NonNull String followerId, @NonNull String followeeId) {
+        return setFollowing(followerId, followeeId, false);
+    }
+
+    /**
+     * Writes one follow edge:
+     * the followee's followers list and subscribers counter, and the follower's following list.
+     * Once the followee's counter is sharded, a follow only writes a random shard and the
+     * follower's list, so the followee's document is not touched; the follower's following list
+     * stays the record of the edge. An unfollow still removes the follower from the followee's
+     * list, so the list never keeps stale followers. Whether the counter is sharded is taken
+     * from the cached profile when the write is recorded; a write sent to the unsharded field
+     * of a sharded counter is still counted, since the total is the field plus its shards.
+     * The write is recorded in the {@link Outbox} first, so it survives going offline,
+     * and then goes through the {@link WriteCoalescer}, so a follow and an unfollow of the
+     * same user within its window cancel out.
+     * Callers are expected to only request actual state changes, since the counter
+     * is incremented unconditionally.
+     *
+     * @param followerId ID of the user who follows or unfollows.
+     * @param followeeId ID of the user being followed or unfollowed.
+     * @param follow     True to follow, false to unfollow.
+     * @return Task completing once the write is committed or cancelled out,
+     * or failing if Firestore rejects it.
+     */
+    public Task<Void> setFollowing(@NonNull String followerId, @NonNull String followeeId, boolean follow) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("followerId", followerId);
+        payload.put("followeeId", followeeId);
+        payload.put("follow", follow);
+        payload.put("subscriberShards", subscriberShardsOf(followeeId));
+        return Outbox.getInstance().record(OUTBOX_TYPE, "follows/" + followerId + "/" + followeeId, payload);
+    }
+
+    /**
+     * Sends a follow recorded in the outbox.
+     *
+     * @param entry  Outbox entry of the follow.
+     * @param marker Marker document to write with the follow.
+     * @return Task completing once the follow is committed or cancelled out.
+     */
+    public Task<Void> dispatch(@NonNull Outbox.Entry entry, @NonNull DocumentReference marker) {
+        JSONObject payload = entry.getPayload();
+        return WriteCoalescer.getInstance().enqueue(new FollowMutation(
+                payload.optString("followerId"), payload.optString("followeeId"), payload.optBoolean("follow"),
+                payload.optInt("subscriberShards"), marker, entry.toMarker()));
+    }
+
+    /**
+     * Returns the number of shards of a user's subscribers counter, as known from the cache.
+     *
+     * @param userId ID of the user.
+     * @return Number of shards, 0 if the counter is not sharded or the profile is not cached.
+     */
+    private static int subscriberShardsOf(String userId) {
+        User cached = UserProfileCache.getInstance().peek(userId);
+        return cached != null ? cached.getSubscriberShards() : 0;
+    }
+
+    /**
+     * A pending follow or unfollow of a user.
+     */
+    private class FollowMutation implements WriteCoalescer.Mutation {
+        private final String followerId;
+        private final String followeeId;
+        private final boolean follow;
+        private final int shards;
+        private final DocumentReference marker;
+        private final Map<String, Object> markerData;
+
+        FollowMutation(String followerId, String followeeId, boolean follow, int shards,
+                       DocumentReference marker, Map<String, Object> markerData) {
+            this.followerId = followerId;
+            this.followeeId = followeeId;
+            this.follow = follow;
+            this.shards = shards;
+            this.marker = marker;
+            this.markerData = markerData;
+        }
+
+        @Override
+        public String key() {
+            return "follows/" + followerId + "/" + followeeId;
+        }
+
+        @Override
+        public WriteCoalescer.Mutation mergeWith(@NonNull WriteCoalescer.Mutation later) {
+            return ((FollowMutation) later).follow == follow ? later : null; // Opposite toggles cancel out
+        }
+
+        @Override
+        public void applyTo(@NonNull WriteBatch batch) {
+            DocumentReference followerRef = db.collection("users").document(followerId);
+            DocumentReference followeeRef = db.collection("users").document(followeeId);
+
+            if (shards > 0) {
+                new ShardedCounter(followeeRef, "subscribers").increment(batch, follow ? 1 : -1, shards);
+                if (!follow) {
+                    batch.update(followeeRef, "followers", FieldValue.arrayRemove(followerId)); // May have been added before promotion
+                }
+            } else if (follow) {
+                batch.update(followeeRef,
+                        "followers", FieldValue.arrayUnion(followerId),
+                        "subscribers", FieldValue.increment(1));
+            } else {
+                batch.update(followeeRef,
+                        "followers", FieldValue.arrayRemove(followerId),
+                        "subscribers", FieldValue.increment(-1));
+            }
+            batch.update(followerRef, "following", follow ? FieldValue.arrayUnion(followeeId) : FieldValue.arrayRemove(followeeId));
+            batch.set(marker, markerData);
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            CounterPromoter.getInstance().onUserWriteFailed(followeeId, e);
+        }
+    }
+}
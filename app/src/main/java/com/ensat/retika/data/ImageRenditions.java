@@ -0,0 +1,167 @@
+/**
+ * Sizes in which post images are stored, so each surface downloads no more pixels than it shows.
+ * Every post has a small thumbnail for grids, a feed-sized copy and the original.
+ * Renditions are bounded by their shorter edge: an image whose shorter edge is at least
+ * the larger side of a view covers that view when center-cropped, and by a byte budget
+ * met by {@link ExportEncoder}.
+ */
+package com.ensat.retika.data;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+
+import com.ensat.retika.models.Post;
+
+import java.io.File;
+import java.io.IOException;
+
+public final class ImageRenditions {
+
+    /**
+     * A stored size of a post image.
+     */
+    public enum Rendition {
+        THUMBNAIL("thumb", 480, 40 * 1024),
+        FEED("feed", 1080, 200 * 1024),
+        ORIGINAL("original", 0, 1536 * 1024);
+
+        final String suffix; // Appended to the post ID in file names
+        final int shortEdge; // Shorter edge of the rendition in pixels, 0 for the original
+        final long maxBytes; // Byte budget of the rendition
+
+        Rendition(String suffix, int shortEdge, long maxBytes) {
+            this.suffix = suffix;
+            this.shortEdge = shortEdge;
+            this.maxBytes = maxBytes;
+        }
+
+    }
+
+    // Paths embed the post ID and never change content, so caches may keep them for a year
+    public static final String CACHE_CONTROL = "public, max-age=31536000, immutable";
+
+    private ImageRenditions() {}
+
+    /**
+     * Returns the Storage path of a rendition.
+     *
+     * @param userId    ID of the author.
+     * @param postId    ID of the post.
+     * @param rendition Rendition to locate.
+     * @param file      Local file of the rendition, whose extension is kept.
+     * @return Path of the rendition in Firebase Storage.
+     */
+    public static String storagePath(@NonNull String userId, @NonNull String postId, @NonNull Rendition rendition,
+                                     @NonNull File file) {
+        String name = rendition == Rendition.ORIGINAL ? postId : postId + "_" + rendition.suffix;
+        return "posts/" + userId + "/" + name + ExportEncoder.extensionOf(file);
+    }
+
+    /**
+     * Returns the local file of a rendition, next to the original and in the same format.
+     *
+     * @param original  Local file of the original image.
+     * @param rendition Rendition to locate.
+     * @return Local file of the rendition.
+     */
+    public static File localFile(@NonNull File original, @NonNull Rendition rendition) {
+        if (rendition == Rendition.ORIGINAL) return original;
+        String extension = ExportEncoder.extensionOf(original);
+        String name = original.getName();
+        name = name.substring(0, name.length() - extension.length()) + "_" + rendition.suffix + extension;
+        return new File(original.getParentFile(), name);
+    }
+
+    /**
+     * Deletes the local files of every rendition of an image.
+     *
+     * @param original Local file of the original image.
+     */
+    public static void deleteLocalFiles(@NonNull File original) {
+        for (Rendition rendition : Rendition.values()) {
+            localFile(original, rendition).delete();
+        }
+    }
+
+    /**
+     * Writes the smaller renditions of an image next to it, skipping those already written.
+     * Images smaller than a rendition are not upscaled.
+     *
+     * @param original Local file of the original image.
+     * @throws IOException if the original cannot be decoded or a rendition cannot be written.
+     */
+    public static void encodeAll(@NonNull File original) throws IOException {
+        for (Rendition rendition : Rendition.values()) {
+            File target = localFile(original, rendition);
+            if (rendition != Rendition.ORIGINAL && !target.exists()) {
+                encode(original, target, rendition);
+            }
+        }
+    }
+
+    /**
+     * Picks the smallest rendition of a post image that covers a view.
+     * Posts published before renditions existed only have the original.
+     *
+     * @param post       Post to show.
+     * @param targetSize Larger side of the view, in pixels.
+     * @return URL of the rendition to load.
+     */
+    public static String urlFor(@NonNull Post post, int targetSize) {
+        if (targetSize <= Rendition.THUMBNAIL.shortEdge && post.getThumbnailUrl() != null) {
+            return post.getThumbnailUrl();
+        }
+        if (targetSize <= Rendition.FEED.shortEdge && post.getFeedImageUrl() != null) {
+            return post.getFeedImageUrl();
+        }
+        return post.getImageUrl();
+    }
+
+    /**
+     * Encodes a downscaled copy of an image.
+     * The image is decoded at the largest power-of-two reduction that keeps it above
+     * the target size, so the full-size bitmap is never held in memory.
+     *
+     * @param source    Local file of the original image.
+     * @param target    File to write.
+     * @param rendition Rendition to encode, giving the size and byte budget of the copy.
+     * @throws IOException if the image cannot be decoded or the copy cannot be written.
+     */
+    private static void encode(File source, File target, Rendition rendition) throws IOException {
+        int shortEdge = rendition.shortEdge;
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getPath(), bounds);
+        int sourceShortEdge = Math.min(bounds.outWidth, bounds.outHeight);
+        if (sourceShortEdge <= 0) {
+            throw new IOException("Cannot decode " + source);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (sourceShortEdge / (options.inSampleSize * 2) >= shortEdge) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap decoded = BitmapFactory.decodeFile(source.getPath(), options);
+        if (decoded == null) {
+            throw new IOException("Cannot decode " + source);
+        }
+
+        Bitmap scaled = decoded;
+        int decodedShortEdge = Math.min(decoded.getWidth(), decoded.getHeight());
+        if (decodedShortEdge > shortEdge) {
+            float scale = (float) shortEdge / decodedShortEdge;
+            scaled = Bitmap.createScaledBitmap(decoded,
+                    Math.round(decoded.getWidth() * scale), Math.round(decoded.getHeight() * scale), true);
+            decoded.recycle();
+        }
+
+        try {
+            ExportEncoder.encode(scaled, target, rendition.maxBytes); // Renamed once complete, so a crash leaves no half file
+        } finally {
+            scaled.recycle();
+        }
+    }
+}
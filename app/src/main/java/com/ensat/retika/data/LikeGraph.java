@@ -0,0 +1,226 @@
+/**
+ * In-memory view of the posts the current user likes.
+ * The user's like records are read once per session and kept as a set,
+ * so like buttons can be bound without any Firestore read.
+ * Likes still stored in the legacy likedBy lists are moved to like records on load.
+ */
+package com.ensat.retika.data;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class LikeGraph {
+
+    /**
+     * Listener notified when the like state of one or more posts changes.
+     */
+    public interface Listener {
+        /**
+         * Called when the like state of a post changed.
+         *
+         * @param postId ID of the post, or null if the whole graph was (re)loaded.
+         */
+        void onLikeStateChanged(String postId);
+    }
+
+    private static LikeGraph instance;
+
+    private final FirebaseFirestore db;
+    private final LikeService likeService;
+    private final Set<String> liked; // IDs of the posts the current user likes
+    private final List<Listener> listeners;
+    private String ownerId; // ID of the user whose likes are loaded
+    private Task<Void> loadTask; // Load of the like records, shared by all callers
+
+    /**
+     * Returns the shared like graph.
+     *
+     * @return Application-wide LikeGraph.
+     */
+    public static synchronized LikeGraph getInstance() {
+        if (instance == null) {
+            instance = new LikeGraph(FirebaseFirestore.getInstance());
+        }
+        return instance;
+    }
+
+    private LikeGraph(FirebaseFirestore db) {
+        this.db = db;
+        this.likeService = new LikeService(db);
+        this.liked = new HashSet<>();
+        this.listeners = new ArrayList<>();
+    }
+
+    /**
+     * Loads the likes of the current user, once per session.
+     * Calling it again for the same user returns the same task without a new read.
+     *
+     * @param currentUserId ID of the currently logged-in user.
+     * @return Task completing once the likes are available.
+     */
+    public synchronized Task<Void> load(@NonNull String currentUserId) {
+        if (currentUserId.equals(ownerId) && loadTask != null) {
+            return loadTask;
+        }
+
+        reset();
+        ownerId = currentUserId;
+
+        Task<QuerySnapshot> records = likeService.likedPostsOf(currentUserId).get();
+        Task<QuerySnapshot> legacy = db.collection("posts").whereArrayContains("likedBy", currentUserId).get();
+
+        TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+        loadTask = source.getTask();
+        Tasks.whenAll(records, legacy)
+                .addOnSuccessListener(aVoid -> {
+                    synchronized (this) {
+                        if (!currentUserId.equals(ownerId)) return; // Session changed meanwhile
+                        for (DocumentSnapshot doc : records.getResult()) {
+                            liked.add(doc.getId());
+                        }
+                        for (DocumentSnapshot doc : legacy.getResult()) {
+                            liked.add(doc.getId());
+                        }
+                        // Likes still waiting in the outbox are not on the server yet
+                        for (Outbox.Entry entry : Outbox.getInstance().pending(LikeService.OUTBOX_TYPE)) {
+                            JSONObject payload = entry.getPayload();
+                            if (!currentUserId.equals(payload.optString("userId"))) continue;
+                            if (payload.optBoolean("like")) {
+                                liked.add(payload.optString("postId"));
+                            } else {
+                                liked.remove(payload.optString("postId"));
+                            }
+                        }
+                    }
+                    for (DocumentSnapshot doc : legacy.getResult()) {
+                        likeService.migrateLegacyLike(currentUserId, doc.getId()); // Retried next session on failure
+                    }
+                    source.setResult(null);
+                    notifyListeners(null);
+                })
+                .addOnFailureListener(e -> {
+                    synchronized (this) {
+                        if (currentUserId.equals(ownerId)) {
+                            loadTask = null; // Allow a later retry
+                        }
+                    }
+                    source.setException(e);
+                });
+        return loadTask;
+    }
+
+    /**
+     * Checks whether the likes have been loaded.
+     *
+     * @return True once the likes are available.
+     */
+    public synchronized boolean isLoaded() {
+        return loadTask != null && loadTask.isSuccessful();
+    }
+
+    /**
+     * Checks whether the current user likes a post.
+     *
+     * @param postId ID of the post.
+     * @return True if the current user likes it.
+     */
+    public synchronized boolean isLiked(String postId) {
+        return liked.contains(postId);
+    }
+
+    /**
+     * Likes or unlikes a post.
+     * The local set is updated right away and rolled back if the write fails.
+     *
+     * @param postId     ID of the post to like or unlike.
+     * @param likeShards Number of shards of the post's like counter, 0 if not sharded.
+     * @return The new like state.
+     */
+    public boolean toggle(@NonNull String postId, int likeShards) {
+        String userId;
+        boolean nowLiked;
+        synchronized (this) {
+            if (ownerId == null) return false; // Nothing to write against before the graph is loaded
+            userId = ownerId;
+            nowLiked = !liked.contains(postId);
+            if (nowLiked) {
+                liked.add(postId);
+            } else {
+                liked.remove(postId);
+            }
+        }
+        notifyListeners(postId);
+
+        likeService.setLiked(userId, postId, nowLiked, likeShards)
+                .addOnFailureListener(e -> rollback(postId, nowLiked));
+        return nowLiked;
+    }
+
+    /**
+     * Forgets the loaded likes, e.g. when the user logs out.
+     */
+    public synchronized void reset() {
+        liked.clear();
+        ownerId = null;
+        loadTask = null;
+    }
+
+    /**
+     * Registers a listener for like state changes.
+     *
+     * @param listener Listener to add.
+     */
+    public synchronized void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener for like state changes.
+     *
+     * @param listener Listener to remove.
+     */
+    public synchronized void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Reverts an optimistic toggle after a failed write.
+     *
+     * @param postId      ID of the post.
+     * @param failedState The like state that failed to be written.
+     */
+    private void rollback(String postId, boolean failedState) {
+        synchronized (this) {
+            if (liked.contains(postId) != failedState) return; // Already reverted or toggled again
+            if (failedState) {
+                liked.remove(postId);
+            } else {
+                liked.add(postId);
+            }
+        }
+        notifyListeners(postId);
+    }
+
+    private void notifyListeners(String postId) {
+        List<Listener> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(listeners);
+        }
+        for (Listener listener : snapshot) {
+            listener.onLikeStateChanged(postId);
+        }
+    }
+}
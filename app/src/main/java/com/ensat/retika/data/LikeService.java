@@ -0,0 +1,182 @@
+/**
+ * Writes likes to Firestore.
+ * A like is a users/{userId}/likedPosts/{postId} record plus a likeCount counter on the post
+ * and its feed item, or on a shard for hot posts, written together with field transforms,
+ * so no liker list is ever read or rewritten.
+ */
+package com.ensat.retika.data;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LikeService {
+
+    public static final String OUTBOX_TYPE = "like";
+
+    private final FirebaseFirestore db;
+    private final FeedProjection feedProjection;
+
+    /**
+     * Constructor for the LikeService.
+     *
+     * @param db Firestore instance to write to.
+     */
+    public LikeService(@NonNull FirebaseFirestore db) {
+        this.db = db;
+        this.feedProjection = new FeedProjection(db);
+    }
+
+    /**
+     * Returns the like records of a user.
+     *
+     * @param userId ID of the user.
+     * @return Collection of the user's like records, keyed by post ID.
+     */
+    public CollectionReference likedPostsOf(@NonNull String userId) {
+        return db.collection("users").document(userId).collection("likedPosts");
+    }
+
+    /**
+     * Writes one like or unlike: the user's like record and the like counters
+     * of the post and its feed item.
+     * Once the post's counter is sharded, only a random shard is written instead of
+     * the two counters, so neither document is touched.
+     * The write is recorded in the {@link Outbox} first, so it survives going offline,
+     * and then goes through the {@link WriteCoalescer}, so a like and an unlike of the
+     * same post within its window cancel out.
+     * Callers are expected to only request actual state changes, since the counters
+     * are incremented unconditionally.
+     *
+     * @param userId     ID of the user who likes or unlikes.
+     * @param postId     ID of the post.
+     * @param like       True to like, false to unlike.
+     * @param likeShards Number of shards of the post's like counter, 0 if not sharded.
+     * @return Task completing once the write is committed or cancelled out,
+     * or failing if Firestore rejects it.
+     */
+    public Task<Void> setLiked(@NonNull String userId, @NonNull String postId, boolean like, int likeShards) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("userId", userId);
+        payload.put("postId", postId);
+        payload.put("like", like);
+        payload.put("likeShards", likeShards);
+        return Outbox.getInstance().record(OUTBOX_TYPE, "likes/" + userId + "/" + postId, payload);
+    }
+
+    /**
+     * Sends a like recorded in the outbox.
+     *
+     * @param entry  Outbox entry of the like.
+     * @param marker Marker document to write with the like.
+     * @return Task completing once the like is committed or cancelled out.
+     */
+    public Task<Void> dispatch(@NonNull Outbox.Entry entry, @NonNull DocumentReference marker) {
+        JSONObject payload = entry.getPayload();
+        return WriteCoalescer.getInstance().enqueue(new LikeMutation(
+                payload.optString("userId"), payload.optString("postId"),
+                payload.optBoolean("like"), payload.optInt("likeShards"),
+                marker, entry.toMarker()));
+    }
+
+    /**
+     * Moves a like from the legacy likedBy list of a post to a like record.
+     * The like moves from the list to the counter, so the post's total is unchanged
+     * and its feed item is left as is.
+     * The move runs in a transaction that only increments the counter while the list still
+     * holds the user, so a retry after a lost acknowledgement, or another device migrating
+     * the same like, never counts it twice.
+     *
+     * @param userId ID of the user who liked the post.
+     * @param postId ID of the post.
+     * @return Task completing once the transaction is committed, or the like was already moved.
+     */
+    public Task<Void> migrateLegacyLike(@NonNull String userId, @NonNull String postId) {
+        DocumentReference postRef = db.collection("posts").document(postId);
+        DocumentReference recordRef = likedPostsOf(userId).document(postId);
+        return db.runTransaction(transaction -> {
+            List<?> likedBy = (List<?>) transaction.get(postRef).get("likedBy");
+            if (likedBy == null || !likedBy.contains(userId)) {
+                return null; // Already moved
+            }
+            transaction.set(recordRef, recordOf(postId));
+            transaction.update(postRef,
+                    "likedBy", FieldValue.arrayRemove(userId),
+                    "likeCount", FieldValue.increment(1));
+            return null;
+        });
+    }
+
+    /**
+     * A pending like or unlike of a post by a user.
+     */
+    private class LikeMutation implements WriteCoalescer.Mutation {
+        private final String userId;
+        private final String postId;
+        private final boolean like;
+        private final int likeShards;
+        private final DocumentReference marker;
+        private final Map<String, Object> markerData;
+
+        LikeMutation(String userId, String postId, boolean like, int likeShards,
+                     DocumentReference marker, Map<String, Object> markerData) {
+            this.userId = userId;
+            this.postId = postId;
+            this.like = like;
+            this.likeShards = likeShards;
+            this.marker = marker;
+            this.markerData = markerData;
+        }
+
+        @Override
+        public String key() {
+            return "likes/" + userId + "/" + postId;
+        }
+
+        @Override
+        public WriteCoalescer.Mutation mergeWith(@NonNull WriteCoalescer.Mutation later) {
+            return ((LikeMutation) later).like == like ? later : null; // Opposite toggles cancel out
+        }
+
+        @Override
+        public void applyTo(@NonNull WriteBatch batch) {
+            DocumentReference recordRef = likedPostsOf(userId).document(postId);
+            DocumentReference postRef = db.collection("posts").document(postId);
+            long delta = like ? 1 : -1;
+
+            if (like) {
+                batch.set(recordRef, recordOf(postId));
+            } else {
+                batch.delete(recordRef);
+            }
+            new ShardedCounter(postRef, "likeCount").increment(batch, delta, likeShards);
+            if (likeShards == 0) {
+                feedProjection.onLikeChanged(batch, postId, delta);
+            }
+            batch.set(marker, markerData);
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            CounterPromoter.getInstance().onPostWriteFailed(postId, e);
+        }
+    }
+
+    private Map<String, Object> recordOf(String postId) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("postId", postId);
+        record.put("timestamp", System.currentTimeMillis());
+        return record;
+    }
+}
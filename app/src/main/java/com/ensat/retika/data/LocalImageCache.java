@@ -0,0 +1,62 @@
+/**
+ * Seeds Glide's disk cache with images this device already has locally, such as a post the user
+ * just uploaded. While a URL is registered here, {@link LocalImageModelLoader} serves it from the
+ * local file, and a download-only load stores those bytes in the disk cache under the URL,
+ * so later loads of the URL never touch the network, even once the local file is gone.
+ */
+package com.ensat.retika.data;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.bumptech.glide.Glide;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class LocalImageCache {
+
+    private static final Map<String, File> localFiles = new ConcurrentHashMap<>(); // URLs being seeded, to their local file
+
+    private LocalImageCache() {}
+
+    /**
+     * Stores a local file in Glide's disk cache as the data of a remote URL.
+     * Best effort: on failure the URL is simply downloaded the first time it is shown.
+     *
+     * @param context Any context.
+     * @param url     Remote URL of the image.
+     * @param file    Local file holding the same bytes.
+     */
+    @WorkerThread
+    public static void seed(@NonNull Context context, @NonNull String url, @NonNull File file) {
+        if (!file.exists()) return;
+        localFiles.put(url, file);
+        try {
+            Glide.with(context.getApplicationContext())
+                    .downloadOnly()
+                    .load(url)
+                    .submit()
+                    .get();
+        } catch (Exception e) {
+            // Not cached; nothing else depends on it
+        } finally {
+            localFiles.remove(url);
+        }
+    }
+
+    /**
+     * Returns the local file registered for a URL.
+     *
+     * @param url Remote URL of an image.
+     * @return Local file with the same bytes, or null if the URL is not being seeded.
+     */
+    @Nullable
+    static File fileFor(@NonNull String url) {
+        return localFiles.get(url);
+    }
+}
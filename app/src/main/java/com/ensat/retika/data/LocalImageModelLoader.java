@@ -0,0 +1,101 @@
+/**
+ * Glide model loader serving image URLs registered in {@link LocalImageCache} from their local file.
+ * Its cache key is the same GlideUrl the network loader uses, so what it loads is cached
+ * exactly as if the URL had been downloaded.
+ */
+package com.ensat.retika.data;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Priority;
+import com.bumptech.glide.load.DataSource;
+import com.bumptech.glide.load.Options;
+import com.bumptech.glide.load.data.DataFetcher;
+import com.bumptech.glide.load.model.GlideUrl;
+import com.bumptech.glide.load.model.ModelLoader;
+import com.bumptech.glide.load.model.ModelLoaderFactory;
+import com.bumptech.glide.load.model.MultiModelLoaderFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+public class LocalImageModelLoader implements ModelLoader<String, InputStream> {
+
+    @Override
+    public LoadData<InputStream> buildLoadData(@NonNull String model, int width, int height, @NonNull Options options) {
+        File file = LocalImageCache.fileFor(model);
+        if (file == null) return null; // Unregistered since handles() was called
+        return new LoadData<>(new GlideUrl(model), new FileFetcher(file));
+    }
+
+    @Override
+    public boolean handles(@NonNull String model) {
+        return LocalImageCache.fileFor(model) != null;
+    }
+
+    /**
+     * Factory registered with Glide.
+     */
+    public static class Factory implements ModelLoaderFactory<String, InputStream> {
+        @NonNull
+        @Override
+        public ModelLoader<String, InputStream> build(@NonNull MultiModelLoaderFactory multiFactory) {
+            return new LocalImageModelLoader();
+        }
+
+        @Override
+        public void teardown() {
+        }
+    }
+
+    /**
+     * Streams the local file of an image.
+     */
+    private static class FileFetcher implements DataFetcher<InputStream> {
+        private final File file;
+        private InputStream stream;
+
+        FileFetcher(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public void loadData(@NonNull Priority priority, @NonNull DataCallback<? super InputStream> callback) {
+            try {
+                stream = new FileInputStream(file);
+                callback.onDataReady(stream);
+            } catch (IOException e) {
+                callback.onLoadFailed(e);
+            }
+        }
+
+        @Override
+        public void cleanup() {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    // Nothing left to read
+                }
+            }
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @NonNull
+        @Override
+        public Class<InputStream> getDataClass() {
+            return InputStream.class;
+        }
+
+        @NonNull
+        @Override
+        public DataSource getDataSource() {
+            return DataSource.REMOTE; // Treated like a download, so the bytes go to the disk cache
+        }
+    }
+}
@@ -0,0 +1,627 @@
+/**
+ * Durable, file-backed queue of user mutations (likes, follows and comments).
+ * A mutation is recorded on disk before anything is sent, so it survives losing the network
+ * or the process, and is replayed in order with retries until Firestore accepts or rejects it.
+ * Every entry carries an idempotency key; its dispatcher writes a marker document under that key
+ * in the same batch as the mutation, so an entry whose outcome is unknown after a restart
+ * is never applied twice. Markers are deleted once the removal of their entry is on disk.
+ * Entries of the same target (e.g. the likes of one user on one post) are sent strictly in
+ * recording order, and entries only go out while the user who recorded them is signed in.
+ */
+package com.ensat.retika.data;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class Outbox {
+
+    /**
+     * Sends the entries of one type of mutation.
+     */
+    public interface Dispatcher {
+        /**
+         * Sends an entry. The dispatcher must write the marker document in the same batch
+         * as the mutation itself.
+         *
+         * @param entry  Entry to send.
+         * @param marker Marker document recording that the entry was applied.
+         * @return Task completing once the entry is committed.
+         */
+        Task<Void> dispatch(@NonNull Entry entry, @NonNull DocumentReference marker);
+    }
+
+    /**
+     * The signed-in user and the marker documents, so the ordering and retry rules
+     * can run without Firebase.
+     */
+    interface Backend {
+        /**
+         * Gets the signed-in user.
+         *
+         * @return User ID, or null if no user is signed in.
+         */
+        @Nullable
+        String currentUid();
+
+        /**
+         * Gets the marker document of an entry.
+         *
+         * @param key Idempotency key of the entry.
+         * @return Marker document reference.
+         */
+        DocumentReference markerOf(@NonNull String key);
+
+        /**
+         * Checks whether the marker of an entry exists, i.e. whether the entry was applied.
+         *
+         * @param key Idempotency key of the entry.
+         * @return Task with true if the marker exists.
+         */
+        Task<Boolean> isApplied(@NonNull String key);
+
+        /**
+         * Deletes the marker of an entry.
+         *
+         * @param key Idempotency key of the entry.
+         * @return Task completing once the marker is deleted.
+         */
+        Task<Void> deleteMarker(@NonNull String key);
+    }
+
+    private static final String TAG = "Outbox";
+    private static final String FILE_NAME = "outbox.json";
+    private static final long BASE_RETRY_DELAY_MS = 2 * 1000;
+    private static final long MAX_RETRY_DELAY_MS = 5 * 60 * 1000;
+    private static final int MAX_ATTEMPTS = 20; // Entries still failing after this many tries are dropped
+
+    // One write at a time, off the main thread, so the file always ends with the latest state
+    private static final ExecutorService WRITER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "outbox-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static Outbox instance;
+
+    private final Backend backend;
+    private final AtomicFile file;
+    private final Handler mainHandler;
+    private final List<Entry> entries; // Pending entries, oldest first
+    private final Map<String, Dispatcher> dispatchers; // Dispatchers by entry type
+    private final Map<String, TaskCompletionSource<Void>> waiting; // Callers waiting for an entry, by key
+    private final Set<String> inFlight; // Keys of the entries currently being sent
+    private final List<String> appliedKeys; // Applied entries whose markers go once their removal is on disk
+    private final Runnable drainRunnable = this::drain;
+    private int failures = 0; // Consecutive failed sends, drives the retry delay
+    private boolean saveScheduled = false; // A write is queued and will pick up the latest entries
+
+    /**
+     * Creates the shared outbox, registers its dispatchers, replays what is left from
+     * earlier sessions and starts watching connectivity. Calling it again does nothing.
+     *
+     * @param context Any context; the application context is kept.
+     */
+    public static synchronized void init(@NonNull Context context) {
+        if (instance != null) return;
+        Context appContext = context.getApplicationContext();
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+
+        instance = new Outbox(new FirestoreBackend(db), new File(appContext.getFilesDir(), FILE_NAME));
+        instance.registerDispatcher(LikeService.OUTBOX_TYPE, new LikeService(db)::dispatch);
+        instance.registerDispatcher(FollowService.OUTBOX_TYPE, new FollowService(db)::dispatch);
+        instance.registerDispatcher(CommentRepository.OUTBOX_TYPE, new CommentRepository(db)::dispatch);
+        instance.watchConnectivity(appContext);
+        // Called once right away, then on every sign-in, so each user's entries resume with their session
+        FirebaseAuth.getInstance().addAuthStateListener(auth -> instance.drain());
+    }
+
+    /**
+     * Returns the shared outbox.
+     *
+     * @return Application-wide Outbox.
+     * @throws IllegalStateException if {@link #init(Context)} was not called.
+     */
+    public static synchronized Outbox getInstance() {
+        if (instance == null) {
+            throw new IllegalStateException("Outbox.init() must be called first");
+        }
+        return instance;
+    }
+
+    Outbox(Backend backend, File file) {
+        this.backend = backend;
+        this.file = new AtomicFile(file);
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.dispatchers = new HashMap<>();
+        this.waiting = new HashMap<>();
+        this.inFlight = new HashSet<>();
+        this.appliedKeys = new ArrayList<>();
+        this.entries = load();
+    }
+
+    /**
+     * Registers the dispatcher sending entries of a type.
+     *
+     * @param type       Entry type.
+     * @param dispatcher Dispatcher for the type.
+     */
+    public synchronized void registerDispatcher(@NonNull String type, @NonNull Dispatcher dispatcher) {
+        dispatchers.put(type, dispatcher);
+    }
+
+    /**
+     * Records a mutation of the signed-in user on disk and starts sending it.
+     * Callers are expected to have applied it to their local state already.
+     *
+     * @param type    Entry type, which selects the dispatcher.
+     * @param target  What the mutation writes to, e.g. "likes/{userId}/{postId}".
+     *                Entries of the same target are sent one after the other, in order.
+     * @param payload Data of the mutation, made of strings, numbers and booleans.
+     * @return Task completing once the mutation is committed, or failing if Firestore rejects it
+     * or no user is signed in. Network failures do not fail the task; the entry is retried instead.
+     */
+    public Task<Void> record(@NonNull String type, @NonNull String target, @NonNull Map<String, Object> payload) {
+        String uid = backend.currentUid();
+        if (uid == null) {
+            return Tasks.forException(new IllegalStateException("No signed-in user to record a mutation for"));
+        }
+        TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+        synchronized (this) {
+            Entry entry = new Entry(UUID.randomUUID().toString(), type, uid,
+                    target, new JSONObject(payload), System.currentTimeMillis());
+            entries.add(entry);
+            waiting.put(entry.key, source);
+            save();
+        }
+        drain();
+        return source.getTask();
+    }
+
+    /**
+     * Returns the pending entries of a type recorded by the signed-in user, so local state
+     * can be rebuilt on top of the server's, e.g. after a restart with mutations still unsent.
+     *
+     * @param type Entry type.
+     * @return Pending entries of the type, oldest first.
+     */
+    public synchronized List<Entry> pending(@NonNull String type) {
+        String uid = backend.currentUid();
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.type.equals(type) && entry.uid.equals(uid)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sends the pending entries of the signed-in user, in the order they were recorded.
+     * Per target, only the entries at the head that were never sent go out, together, so the
+     * {@link WriteCoalescer} merges them into one write; a retried entry goes out alone after
+     * a check of its marker, and newer entries of its target wait until it is done.
+     */
+    public void drain() {
+        String uid = backend.currentUid();
+        List<Entry> fresh = new ArrayList<>();
+        List<Entry> retries = new ArrayList<>();
+        Map<String, Integer> runLengths = new HashMap<>(); // Fresh entries sent per target
+        synchronized (this) {
+            mainHandler.removeCallbacks(drainRunnable);
+            if (uid == null) return; // Entries wait for their user to sign in again
+
+            Set<String> blocked = new HashSet<>(); // Targets with an older entry in flight or retried
+            for (Entry entry : entries) {
+                if (!uid.equals(entry.uid) || blocked.contains(entry.target)) continue;
+                if (inFlight.contains(entry.key)) {
+                    blocked.add(entry.target);
+                } else if (entry.attempts > 0) {
+                    blocked.add(entry.target);
+                    if (!runLengths.containsKey(entry.target)) {
+                        inFlight.add(entry.key);
+                        retries.add(entry);
+                    }
+                } else {
+                    inFlight.add(entry.key);
+                    fresh.add(entry);
+                    Integer length = runLengths.get(entry.target);
+                    runLengths.put(entry.target, length == null ? 1 : length + 1);
+                }
+            }
+            for (Entry entry : fresh) {
+                entry.attempts++;
+            }
+            for (Entry entry : retries) {
+                entry.attempts++;
+            }
+            if (!fresh.isEmpty() || !retries.isEmpty()) {
+                save();
+            }
+        }
+
+        for (Entry entry : fresh) {
+            send(entry, runLengths.get(entry.target) == 1);
+        }
+        for (Entry entry : retries) {
+            // A previous attempt may have been committed before the outcome was lost
+            backend.isApplied(entry.key).addOnCompleteListener(task -> {
+                if (task.isSuccessful() && Boolean.TRUE.equals(task.getResult())) {
+                    complete(entry, null);
+                } else {
+                    send(entry, true);
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands an entry to its dispatcher and handles the outcome.
+     *
+     * @param entry Entry to send.
+     * @param alone False if newer entries of the same target were merged into the same write,
+     *              in which case a failure cannot be blamed on this entry.
+     */
+    private void send(Entry entry, boolean alone) {
+        Dispatcher dispatcher;
+        synchronized (this) {
+            dispatcher = dispatchers.get(entry.type);
+        }
+        if (dispatcher == null) {
+            Log.w(TAG, "No dispatcher for outbox entry type " + entry.type);
+            complete(entry, new IllegalStateException("Unknown outbox entry type " + entry.type));
+            return;
+        }
+
+        dispatcher.dispatch(entry, backend.markerOf(entry.key))
+                .addOnSuccessListener(aVoid -> complete(entry, null))
+                .addOnFailureListener(e -> {
+                    if (entry.attempts >= MAX_ATTEMPTS) {
+                        complete(entry, e);
+                    } else if (!alone || !entry.uid.equals(backend.currentUid())) {
+                        // Retried alone, or once its user is back, before it is judged on its own failure
+                        retryLater(entry);
+                    } else if (isPermanent(e)) {
+                        complete(entry, e);
+                    } else {
+                        retryLater(entry);
+                    }
+                });
+    }
+
+    /**
+     * Removes an entry once it was applied or rejected, and tells the waiting caller.
+     *
+     * @param entry Entry that is done.
+     * @param error Cause of the rejection, or null if the entry was applied.
+     */
+    private void complete(Entry entry, Exception error) {
+        TaskCompletionSource<Void> source;
+        boolean targetPending = false;
+        synchronized (this) {
+            entries.remove(entry);
+            inFlight.remove(entry.key);
+            source = waiting.remove(entry.key);
+            if (error == null) {
+                failures = 0;
+                appliedKeys.add(entry.key);
+            }
+            for (Entry other : entries) {
+                targetPending |= other.target.equals(entry.target);
+            }
+            save();
+        }
+        if (targetPending) {
+            mainHandler.post(this::drain); // Newer entries of the target were held behind this one
+        }
+        if (error != null) {
+            Log.w(TAG, "Dropping outbox entry " + entry.key + " of type " + entry.type, error);
+        }
+        if (source != null) {
+            if (error == null) {
+                source.trySetResult(null);
+            } else {
+                source.trySetException(error);
+            }
+        }
+    }
+
+    /**
+     * Schedules another attempt with exponential backoff.
+     *
+     * @param entry Entry whose send failed.
+     */
+    private synchronized void retryLater(Entry entry) {
+        inFlight.remove(entry.key);
+        failures++;
+        long delay = Math.min(MAX_RETRY_DELAY_MS, BASE_RETRY_DELAY_MS << Math.min(failures, 16));
+        mainHandler.removeCallbacks(drainRunnable);
+        mainHandler.postDelayed(drainRunnable, delay);
+    }
+
+    /**
+     * Replays the outbox as soon as a network becomes available.
+     *
+     * @param context Application context.
+     */
+    private void watchConnectivity(Context context) {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) return;
+
+        NetworkRequest request = new NetworkRequest.Builder()
+                .addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        connectivityManager.registerNetworkCallback(request, new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                synchronized (Outbox.this) {
+                    failures = 0;
+                }
+                mainHandler.post(Outbox.this::drain);
+            }
+        });
+    }
+
+    /**
+     * Checks whether a failure will not go away by retrying.
+     *
+     * @param e Cause of the failure.
+     * @return True if the entry should be dropped.
+     */
+    private boolean isPermanent(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case INVALID_ARGUMENT:
+            case NOT_FOUND:
+            case ALREADY_EXISTS:
+            case PERMISSION_DENIED:
+            case FAILED_PRECONDITION:
+            case OUT_OF_RANGE:
+            case UNIMPLEMENTED:
+            case DATA_LOSS:
+            case UNAUTHENTICATED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads the pending entries left by earlier sessions.
+     *
+     * @return Pending entries, oldest first.
+     */
+    private List<Entry> load() {
+        List<Entry> loaded = new ArrayList<>();
+        if (!file.getBaseFile().exists()) {
+            return loaded;
+        }
+        try (FileInputStream in = file.openRead()) {
+            byte[] bytes = new byte[(int) file.getBaseFile().length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            JSONArray array = new JSONArray(new String(bytes, 0, read, StandardCharsets.UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                try {
+                    loaded.add(Entry.fromJson(array.getJSONObject(i)));
+                } catch (JSONException e) {
+                    // An entry missing its user or target could never be sent nor dropped
+                    Log.e(TAG, "Skipping malformed outbox entry", e);
+                }
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Failed to read the outbox", e);
+        }
+        return loaded;
+    }
+
+    /**
+     * Schedules a write of the pending entries on the writer thread.
+     * Writes requested while one is queued are folded into it.
+     */
+    private synchronized void save() {
+        if (saveScheduled) return;
+        saveScheduled = true;
+        WRITER.execute(this::write);
+    }
+
+    /**
+     * Writes the pending entries to disk atomically, then deletes the markers of the entries
+     * whose removal is now on disk, since they can no longer be replayed.
+     */
+    private void write() {
+        String json;
+        List<String> applied;
+        synchronized (this) {
+            saveScheduled = false;
+            JSONArray array = new JSONArray();
+            try {
+                for (Entry entry : entries) {
+                    array.put(entry.toJson());
+                }
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to write the outbox", e);
+                return;
+            }
+            json = array.toString();
+            applied = new ArrayList<>(appliedKeys);
+            appliedKeys.clear();
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write the outbox", e);
+            if (out != null) {
+                file.failWrite(out);
+            }
+            synchronized (this) {
+                appliedKeys.addAll(applied); // The entries may still be replayed, keep their markers
+            }
+            return;
+        }
+
+        for (String key : applied) {
+            backend.deleteMarker(key)
+                    .addOnFailureListener(e -> Log.w(TAG, "Failed to delete outbox marker " + key, e));
+        }
+    }
+
+    /**
+     * Backend of the app: Firebase Auth for the user, the outboxMarkers collection for markers.
+     */
+    private static class FirestoreBackend implements Backend {
+        private final FirebaseFirestore db;
+
+        FirestoreBackend(FirebaseFirestore db) {
+            this.db = db;
+        }
+
+        @Nullable
+        @Override
+        public String currentUid() {
+            return FirebaseAuth.getInstance().getUid();
+        }
+
+        @Override
+        public DocumentReference markerOf(@NonNull String key) {
+            return db.collection("outboxMarkers").document(key);
+        }
+
+        @Override
+        public Task<Boolean> isApplied(@NonNull String key) {
+            return markerOf(key).get().continueWith(task -> task.getResult().exists());
+        }
+
+        @Override
+        public Task<Void> deleteMarker(@NonNull String key) {
+            return markerOf(key).delete();
+        }
+    }
+
+    /**
+     * A recorded mutation.
+     */
+    public static class Entry {
+        private final String key; // Idempotency key
+        private final String type;
+        private final String uid; // ID of the user who recorded the entry
+        private final String target; // Entries of the same target are sent in order
+        private final JSONObject payload;
+        private final long createdAt;
+        private int attempts;
+
+        Entry(String key, String type, String uid, String target, JSONObject payload, long createdAt) {
+            this.key = key;
+            this.type = type;
+            this.uid = uid;
+            this.target = target;
+            this.payload = payload;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * Gets the idempotency key of the entry.
+         *
+         * @return Key, unique per recorded mutation.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Gets the data of the mutation.
+         *
+         * @return Payload as recorded.
+         */
+        public JSONObject getPayload() {
+            return payload;
+        }
+
+        /**
+         * Gets when the mutation was recorded.
+         *
+         * @return Time in milliseconds since the epoch.
+         */
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        /**
+         * Builds the marker document written together with the mutation.
+         *
+         * @return Marker fields.
+         */
+        public Map<String, Object> toMarker() {
+            Map<String, Object> marker = new HashMap<>();
+            marker.put("type", type);
+            marker.put("createdAt", createdAt);
+            return marker;
+        }
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("key", key)
+                    .put("type", type)
+                    .put("uid", uid)
+                    .put("target", target)
+                    .put("payload", payload)
+                    .put("createdAt", createdAt)
+                    .put("attempts", attempts);
+        }
+
+        static Entry fromJson(JSONObject json) throws JSONException {
+            String key = json.getString("key");
+            String type = json.getString("type");
+            Entry entry = new Entry(key, type, json.getString("uid"), json.getString("target"),
+                    json.getJSONObject("payload"), json.getLong("createdAt"));
+            entry.attempts = json.optInt("attempts");
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Background worker writing the Firestore documents of a new post, chained after
+ * {@link PostUploadWorker}. The post and its feed item are written in one batch under the
+ * post ID chosen up front, so running it again after an interruption overwrites the same
+ * documents instead of creating duplicates.
+ */
+package com.ensat.retika.data;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.ensat.retika.models.Post;
+import com.ensat.retika.models.User;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class PostPublishWorker extends Worker {
+
+    private static final long TIMEOUT_SECONDS = 60; // Firestore waits for the network forever otherwise
+
+    /**
+     * Constructor called by WorkManager.
+     *
+     * @param context      Application context.
+     * @param workerParams Parameters of the work.
+     */
+    public PostPublishWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Writes the post and its feed item, then deletes the local copies of the image.
+     *
+     * @return Success once the post is published, retry on a transient failure,
+     * or failure if Firestore rejects the post.
+     */
+    @NonNull
+    @Override
+    public Result doWork() {
+        Data input = getInputData();
+        String postId = input.getString(PostUploadWorker.KEY_POST_ID);
+        String userId = input.getString(PostUploadWorker.KEY_USER_ID);
+        String imageUrl = input.getString(PostUploadWorker.KEY_IMAGE_URL);
+        String thumbnailUrl = input.getString(PostUploadWorker.KEY_THUMBNAIL_URL);
+        String feedImageUrl = input.getString(PostUploadWorker.KEY_FEED_IMAGE_URL);
+        String caption = input.getString(PostUploadWorker.KEY_CAPTION);
+        long timestamp = input.getLong(PostUploadWorker.KEY_TIMESTAMP, System.currentTimeMillis());
+        File image = new File(input.getString(PostUploadWorker.KEY_IMAGE_PATH));
+        UploadNotifications notifications = new UploadNotifications(getApplicationContext());
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+
+        User author = null;
+        try {
+            author = Tasks.await(UserProfileCache.getInstance().get(userId), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            // The feed item is written without author fields; FeedProjection.repair() fills them in later
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+
+        HashMap<String, Object> post = new HashMap<>();
+        post.put("userId", userId);
+        post.put("imageUrl", imageUrl);
+        post.put("thumbnailUrl", thumbnailUrl);
+        post.put("feedImageUrl", feedImageUrl);
+        post.put("caption", caption);
+        post.put("timestamp", timestamp);
+        post.put("commentCount", 0);
+        post.put("likeCount", 0);
+
+        WriteBatch batch = db.batch();
+        batch.set(db.collection("posts").document(postId), post);
+        Post published = new Post(postId, userId, imageUrl, caption, timestamp);
+        published.setThumbnailUrl(thumbnailUrl);
+        published.setFeedImageUrl(feedImageUrl);
+        new FeedProjection(db).addToBatch(batch, published, author);
+
+        try {
+            Tasks.await(batch.commit(), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FirebaseFirestoreException
+                    && ((FirebaseFirestoreException) e.getCause()).getCode()
+                    == FirebaseFirestoreException.Code.PERMISSION_DENIED) {
+                return giveUp(notifications, postId, image);
+            }
+            return retryOrGiveUp(notifications, postId, image);
+        } catch (TimeoutException e) {
+            return retryOrGiveUp(notifications, postId, image);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+
+        ImageRenditions.deleteLocalFiles(image);
+        notifications.showPublished(postId);
+        return Result.success();
+    }
+
+    private Result retryOrGiveUp(UploadNotifications notifications, String postId, File image) {
+        return getRunAttemptCount() + 1 < PostUploadWorker.MAX_ATTEMPTS ? Result.retry() : giveUp(notifications, postId, image);
+    }
+
+    private Result giveUp(UploadNotifications notifications, String postId, File image) {
+        ImageRenditions.deleteLocalFiles(image);
+        notifications.showFailed(postId);
+        return Result.failure();
+    }
+}
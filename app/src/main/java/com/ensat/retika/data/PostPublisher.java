@@ -0,0 +1,128 @@
+/**
+ * Publishes new posts in the background.
+ * The final image is encoded into app storage and handed to WorkManager before any upload starts,
+ * so a post created offline, left behind by navigating away or interrupted by the process dying
+ * is still published, resuming its upload where it stopped.
+ */
+package com.ensat.retika.data;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.WorkRequest;
+
+import com.ensat.retika.models.Post;
+import com.ensat.retika.models.User;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+public class PostPublisher {
+
+    public static final String WORK_TAG = "publish-post"; // Tag of every upload and write of a post
+    private static final String IMAGE_DIR = "outbox_images"; // Images of posts not yet published
+
+    private final Context context;
+    private final FirebaseFirestore db;
+
+    /**
+     * Constructor for the PostPublisher.
+     *
+     * @param context Context used to reach app storage.
+     * @param db      Firestore instance used to pick post IDs.
+     */
+    public PostPublisher(@NonNull Context context, @NonNull FirebaseFirestore db) {
+        this.context = context.getApplicationContext();
+        this.db = db;
+    }
+
+    /**
+     * Hands a new post to WorkManager: an upload of its image chained with the write
+     * of its documents, run once the network is available. The post ID is chosen up front,
+     * so retries overwrite the same image and documents instead of creating duplicates.
+     * Progress and the outcome are shown in a notification, so the caller does not wait.
+     *
+     * The image is encoded once, straight into the file the upload reads, as WebP within
+     * the byte budget of the original rendition; it needs no temporary copy and carries no metadata.
+     *
+     * @param userId  ID of the author.
+     * @param image   Final image of the post; it is left untouched.
+     * @param caption Caption of the post.
+     * @return The new post as it will be published, except that its image URL points to
+     * the local copy of the image until the upload is done.
+     * @throws IOException if the image cannot be written into app storage.
+     */
+    @WorkerThread
+    public Post publish(@NonNull String userId, @NonNull Bitmap image, @NonNull String caption) throws IOException {
+        String postId = db.collection("posts").document().getId();
+        long timestamp = System.currentTimeMillis();
+        File stored = new File(imageDir(), postId + ExportEncoder.WEBP_EXTENSION);
+        ExportEncoder.encode(image, stored, ImageRenditions.Rendition.ORIGINAL.maxBytes);
+
+        Data input = new Data.Builder()
+                .putString(PostUploadWorker.KEY_POST_ID, postId)
+                .putString(PostUploadWorker.KEY_USER_ID, userId)
+                .putString(PostUploadWorker.KEY_IMAGE_PATH, stored.getAbsolutePath())
+                .putString(PostUploadWorker.KEY_CAPTION, caption)
+                .putLong(PostUploadWorker.KEY_TIMESTAMP, timestamp)
+                .build();
+        Constraints online = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+
+        OneTimeWorkRequest upload = new OneTimeWorkRequest.Builder(PostUploadWorker.class)
+                .setInputData(input)
+                .setConstraints(online)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, WorkRequest.MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)
+                .addTag(WORK_TAG)
+                .build();
+        OneTimeWorkRequest write = new OneTimeWorkRequest.Builder(PostPublishWorker.class)
+                .setConstraints(online)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, WorkRequest.MIN_BACKOFF_MILLIS, TimeUnit.MILLISECONDS)
+                .addTag(WORK_TAG)
+                .build();
+
+        WorkManager.getInstance(context)
+                .beginUniqueWork(workNameOf(postId), ExistingWorkPolicy.KEEP, upload)
+                .then(write)
+                .enqueue();
+
+        Post post = new Post(postId, userId, Uri.fromFile(stored).toString(), caption, timestamp);
+        User author = UserProfileCache.getInstance().peek(userId);
+        if (author != null) {
+            post.setAuthorUsername(author.getUsername());
+            post.setAuthorAvatarUrl(author.getProfilePictureUrl());
+        }
+        return post;
+    }
+
+    /**
+     * Returns the name of the unique work publishing a post.
+     *
+     * @param postId ID of the post.
+     * @return Unique work name, e.g. to observe the progress of the post.
+     */
+    public static String workNameOf(@NonNull String postId) {
+        return "publish-post-" + postId;
+    }
+
+    private File imageDir() {
+        File dir = new File(context.getFilesDir(), IMAGE_DIR);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+}
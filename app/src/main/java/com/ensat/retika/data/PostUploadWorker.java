@@ -0,0 +1,256 @@
+/**
+ * Background worker uploading the image of a new post to Firebase Storage, in each of its
+ * {@link ImageRenditions} sizes, with long-lived cache-control metadata.
+ * The resumable session URI of each upload is saved as soon as Storage hands it out,
+ * so an upload interrupted by a lost network, the worker being stopped or the process dying
+ * continues from the last byte the server received instead of starting over.
+ * Its output is the input plus the download URLs, consumed by {@link PostPublishWorker}.
+ */
+package com.ensat.retika.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.work.Data;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.ensat.retika.data.ImageRenditions.Rendition;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageException;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+public class PostUploadWorker extends Worker {
+
+    public static final String KEY_POST_ID = "postId";
+    public static final String KEY_USER_ID = "userId";
+    public static final String KEY_IMAGE_PATH = "imagePath";
+    public static final String KEY_CAPTION = "caption";
+    public static final String KEY_TIMESTAMP = "timestamp";
+    public static final String KEY_IMAGE_URL = "imageUrl";
+    public static final String KEY_THUMBNAIL_URL = "thumbnailUrl";
+    public static final String KEY_FEED_IMAGE_URL = "feedImageUrl";
+    public static final String KEY_PROGRESS = "progress";
+
+    static final int MAX_ATTEMPTS = 20; // Uploads still failing after this many runs are dropped
+    private static final String SESSIONS = "upload_sessions"; // Resumable session URIs by post ID and rendition
+    private static final String URL_SUFFIX = "/url"; // Key suffix of the download URL of a finished upload
+
+    private volatile UploadTask uploadTask; // Upload in progress, paused if the work is stopped
+    private volatile CountDownLatch uploadDone; // Released when the upload ends or the work is stopped
+
+    /**
+     * Constructor called by WorkManager.
+     *
+     * @param context      Application context.
+     * @param workerParams Parameters of the work.
+     */
+    public PostUploadWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Encodes the renditions of the image, then uploads them one by one,
+     * skipping those uploaded by an earlier run and resuming the saved session if there is one.
+     *
+     * @return Success with the download URLs, retry on a transient failure,
+     * or failure if the upload cannot succeed.
+     */
+    @NonNull
+    @Override
+    public Result doWork() {
+        Data input = getInputData();
+        String postId = input.getString(KEY_POST_ID);
+        String userId = input.getString(KEY_USER_ID);
+        File image = new File(input.getString(KEY_IMAGE_PATH));
+        UploadNotifications notifications = new UploadNotifications(getApplicationContext());
+        SharedPreferences sessions = getApplicationContext().getSharedPreferences(SESSIONS, Context.MODE_PRIVATE);
+
+        if (!image.exists()) {
+            return giveUp(sessions, notifications, postId, image);
+        }
+
+        try {
+            setForegroundAsync(notifications.foregroundInfo(postId, 0)).get();
+        } catch (Exception e) {
+            // Not allowed to start in the foreground (e.g. app in the background on Android 12+);
+            // the upload still runs, only less protected from being stopped
+        }
+
+        try {
+            ImageRenditions.encodeAll(image);
+        } catch (IOException e) {
+            return giveUp(sessions, notifications, postId, image);
+        }
+
+        long totalBytes = 0;
+        for (Rendition rendition : Rendition.values()) {
+            totalBytes += ImageRenditions.localFile(image, rendition).length();
+        }
+
+        Data.Builder output = new Data.Builder().putAll(input);
+        long doneBytes = 0;
+        for (Rendition rendition : Rendition.values()) {
+            File file = ImageRenditions.localFile(image, rendition);
+            String key = postId + "/" + rendition.suffix;
+            String url = sessions.getString(key + URL_SUFFIX, null);
+
+            if (url == null) {
+                try {
+                    url = upload(ImageRenditions.storagePath(userId, postId, rendition, file), file, key,
+                            sessions, notifications, postId, doneBytes, totalBytes);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof StorageException) {
+                        StorageException storageError = (StorageException) cause;
+                        if (storageError.getErrorCode() == StorageException.ERROR_NOT_AUTHORIZED) {
+                            return giveUp(sessions, notifications, postId, image);
+                        }
+                        if (!storageError.getIsRecoverableException()) {
+                            sessions.edit().remove(key).apply(); // Session rejected or expired; start over next time
+                        }
+                    }
+                    return getRunAttemptCount() + 1 < MAX_ATTEMPTS ? Result.retry() : giveUp(sessions, notifications, postId, image);
+                } catch (InterruptedException e) {
+                    uploadTask.pause(); // Cancelling would end the session the next run resumes
+                    Thread.currentThread().interrupt();
+                    return Result.retry();
+                }
+                if (url == null) {
+                    return Result.retry(); // Paused by onStopped(); the session is kept for the next run
+                }
+                sessions.edit().remove(key).putString(key + URL_SUFFIX, url).apply();
+            }
+
+            // The author's device will show this URL right away; let it come from the local copy
+            LocalImageCache.seed(getApplicationContext(), url, file);
+            output.putString(outputKeyOf(rendition), url);
+            doneBytes += file.length();
+        }
+
+        forget(sessions, postId);
+        return Result.success(output.build());
+    }
+
+    /**
+     * Uploads one file, resuming its saved session if there is one, and saving the session
+     * as soon as Storage hands it out.
+     *
+     * @param path          Storage path to upload to.
+     * @param file          Local file to upload.
+     * @param key           Key of the upload in the session preferences.
+     * @param sessions      Saved sessions.
+     * @param notifications Notifications of the post.
+     * @param postId        ID of the post.
+     * @param doneBytes     Bytes of the post already uploaded by earlier files.
+     * @param totalBytes    Bytes of all the files of the post.
+     * @return Download URL of the file, or null if the work was stopped and the upload paused.
+     * @throws ExecutionException   if the upload failed.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    private String upload(String path, File file, String key, SharedPreferences sessions,
+                          UploadNotifications notifications, String postId, long doneBytes, long totalBytes)
+            throws ExecutionException, InterruptedException {
+        StorageReference ref = FirebaseStorage.getInstance().getReference().child(path);
+        StorageMetadata metadata = new StorageMetadata.Builder()
+                .setContentType(ExportEncoder.contentTypeOf(file))
+                .setCacheControl(ImageRenditions.CACHE_CONTROL)
+                .build();
+        String session = sessions.getString(key, null);
+
+        CountDownLatch done = new CountDownLatch(1);
+        uploadDone = done;
+        UploadTask task = session == null
+                ? ref.putFile(Uri.fromFile(file), metadata)
+                : ref.putFile(Uri.fromFile(file), metadata, Uri.parse(session));
+        uploadTask = task;
+        task.addOnCompleteListener(Runnable::run, t -> done.countDown());
+        task.addOnProgressListener(Runnable::run, snapshot -> {
+            Uri sessionUri = snapshot.getUploadSessionUri();
+            if (sessionUri != null && !sessionUri.toString().equals(sessions.getString(key, null))) {
+                sessions.edit().putString(key, sessionUri.toString()).commit(); // Must hit the disk before any crash
+            }
+            long uploaded = doneBytes + snapshot.getBytesTransferred();
+            int percent = totalBytes > 0 ? (int) Math.min(100, 100 * uploaded / totalBytes) : 0;
+            setProgressAsync(new Data.Builder().putInt(KEY_PROGRESS, percent).build());
+            notifications.showProgress(postId, percent);
+        });
+
+        if (!isStopped()) {
+            done.await();
+        }
+        if (!task.isComplete()) {
+            task.pause(); // Stopped meanwhile; a paused upload keeps its session valid
+            return null;
+        }
+        Tasks.await(task);
+        return Tasks.await(ref.getDownloadUrl()).toString();
+    }
+
+    /**
+     * Returns the output key holding the download URL of a rendition.
+     *
+     * @param rendition Rendition of the image.
+     * @return Output data key.
+     */
+    private static String outputKeyOf(Rendition rendition) {
+        switch (rendition) {
+            case THUMBNAIL:
+                return KEY_THUMBNAIL_URL;
+            case FEED:
+                return KEY_FEED_IMAGE_URL;
+            default:
+                return KEY_IMAGE_URL;
+        }
+    }
+
+    /**
+     * Drops the saved sessions and URLs of a post.
+     *
+     * @param sessions Saved sessions.
+     * @param postId   ID of the post.
+     */
+    private static void forget(SharedPreferences sessions, String postId) {
+        SharedPreferences.Editor editor = sessions.edit();
+        for (Rendition rendition : Rendition.values()) {
+            String key = postId + "/" + rendition.suffix;
+            editor.remove(key).remove(key + URL_SUFFIX);
+        }
+        editor.apply();
+    }
+
+    /**
+     * Called when WorkManager stops the work, e.g. when the network is lost.
+     * The upload is paused rather than cancelled, which would end its session,
+     * so the saved session lets the next run resume it.
+     */
+    @Override
+    public void onStopped() {
+        super.onStopped();
+        UploadTask task = uploadTask;
+        if (task != null) {
+            task.pause();
+        }
+        CountDownLatch done = uploadDone;
+        if (done != null) {
+            done.countDown();
+        }
+    }
+
+    private Result giveUp(SharedPreferences sessions, UploadNotifications notifications, String postId, File image) {
+        forget(sessions, postId);
+        ImageRenditions.deleteLocalFiles(image);
+        notifications.showFailed(postId);
+        return Result.failure();
+    }
+}
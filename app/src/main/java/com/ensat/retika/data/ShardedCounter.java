@@ -0,0 +1,85 @@
+/**
+ * Counter stored in a field of a document, optionally spread over shards.
+ * In sharded mode increments go to a random document of a shards subcollection,
+ * so a hot counter is no longer limited by the write rate of a single document.
+ * The value of the counter is always the field plus the sum of its shards,
+ * which keeps it correct while clients switch modes.
+ */
+package com.ensat.retika.data;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Collections;
+import java.util.Random;
+
+public class ShardedCounter {
+
+    public static final int DEFAULT_SHARDS = 10; // Shards created when a counter is promoted
+
+    private static final Random random = new Random();
+
+    private final DocumentReference document;
+    private final String field;
+
+    /**
+     * Constructor for the ShardedCounter.
+     *
+     * @param document Document holding the counter field.
+     * @param field    Name of the counter field; its shards live in a "{field}Shards" subcollection.
+     */
+    public ShardedCounter(@NonNull DocumentReference document, @NonNull String field) {
+        this.document = document;
+        this.field = field;
+    }
+
+    /**
+     * Returns the shards of the counter.
+     *
+     * @return Shards subcollection.
+     */
+    public CollectionReference shards() {
+        return document.collection(field + "Shards");
+    }
+
+    /**
+     * Adds an increment of the counter to a batch.
+     *
+     * @param batch      Batch to add the write to.
+     * @param delta      Amount to add, negative to subtract.
+     * @param shardCount Number of shards of the counter, or 0 to write the field itself.
+     */
+    public void increment(@NonNull WriteBatch batch, long delta, int shardCount) {
+        if (shardCount > 0) {
+            DocumentReference shard = shards().document(String.valueOf(random.nextInt(shardCount)));
+            batch.set(shard, Collections.singletonMap("count", FieldValue.increment(delta)), SetOptions.merge());
+        } else {
+            batch.update(document, field, FieldValue.increment(delta));
+        }
+    }
+
+    /**
+     * Reads the sum of the shards. Add the counter field to get the value of the counter.
+     *
+     * @return Task resolving to the sum of the shards.
+     */
+    public Task<Long> sumShards() {
+        return shards().get().continueWith(task -> {
+            long sum = 0;
+            for (DocumentSnapshot shard : task.getResult()) {
+                Long count = shard.getLong("count");
+                if (count != null) {
+                    sum += count;
+                }
+            }
+            return sum;
+        });
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Notifications shown while a post is being uploaded in the background.
+ * Each post has its own notification, showing the upload progress and then
+ * whether the post was published or failed.
+ */
+package com.ensat.retika.data;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.work.ForegroundInfo;
+
+import com.ensat.retika.R;
+
+class UploadNotifications {
+
+    private static final String CHANNEL_ID = "post_uploads";
+
+    private final Context context;
+    private final NotificationManagerCompat manager;
+
+    /**
+     * Constructor for the UploadNotifications. Creates the notification channel if needed.
+     *
+     * @param context Any context; the application context is kept.
+     */
+    UploadNotifications(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+        this.manager = NotificationManagerCompat.from(this.context);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    "Post uploads", NotificationManager.IMPORTANCE_LOW);
+            context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+    }
+
+    /**
+     * Builds the foreground info of an upload, so the worker is kept alive while it runs.
+     *
+     * @param postId  ID of the post being uploaded.
+     * @param percent Progress of the upload, from 0 to 100.
+     * @return Foreground info showing the progress notification.
+     */
+    ForegroundInfo foregroundInfo(@NonNull String postId, int percent) {
+        Notification notification = progress(percent);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return new ForegroundInfo(idOf(postId), notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        }
+        return new ForegroundInfo(idOf(postId), notification);
+    }
+
+    /**
+     * Updates the progress of an upload.
+     *
+     * @param postId  ID of the post being uploaded.
+     * @param percent Progress of the upload, from 0 to 100.
+     */
+    void showProgress(@NonNull String postId, int percent) {
+        notify(postId, progress(percent));
+    }
+
+    /**
+     * Tells the user that the post is online.
+     *
+     * @param postId ID of the published post.
+     */
+    void showPublished(@NonNull String postId) {
+        notify(postId, base()
+                .setContentTitle("Post published")
+                .setAutoCancel(true)
+                .build());
+    }
+
+    /**
+     * Tells the user that the post could not be published and was dropped.
+     *
+     * @param postId ID of the post.
+     */
+    void showFailed(@NonNull String postId) {
+        notify(postId, base()
+                .setContentTitle("Failed to create post")
+                .setAutoCancel(true)
+                .build());
+    }
+
+    private Notification progress(int percent) {
+        return base()
+                .setContentTitle("Uploading post")
+                .setProgress(100, percent, percent == 0)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .build();
+    }
+
+    private NotificationCompat.Builder base() {
+        return new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_add_photo)
+                .setPriority(NotificationCompat.PRIORITY_LOW);
+    }
+
+    private void notify(String postId, Notification notification) {
+        try {
+            manager.notify(idOf(postId), notification);
+        } catch (SecurityException e) {
+            // Notifications not allowed; the upload goes on silently
+        }
+    }
+
+    private static int idOf(String postId) {
+        return postId.hashCode();
+    }
+}
@@ -0,0 +1,241 @@
+/**
+ * Process-wide cache of user profiles.
+ * Keeps a size-bounded LRU of User records with a per-entry time-to-live,
+ * and shares in-flight Firestore reads between concurrent requests for the same user.
+ */
+package com.ensat.retika.data;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.ensat.retika.models.User;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class UserProfileCache {
+
+    private static final int MAX_ENTRIES = 256; // Upper bound on cached profiles
+    private static final long TTL_MS = 5 * 60 * 1000; // Profiles are re-read after five minutes
+    private static final int WHERE_IN_LIMIT = 10; // Firestore caps "in" queries at 10 values
+
+    private static UserProfileCache instance;
+
+    private final FirebaseFirestore db;
+    private final LinkedHashMap<String, Entry> entries; // Access-ordered, eldest entry is evicted first
+    private final Map<String, Task<User>> inFlight; // Reads currently running, keyed by user ID
+
+    /**
+     * Returns the shared cache instance.
+     *
+     * @return Application-wide UserProfileCache.
+     */
+    public static synchronized UserProfileCache getInstance() {
+        if (instance == null) {
+            instance = new UserProfileCache(FirebaseFirestore.getInstance());
+        }
+        return instance;
+    }
+
+    private UserProfileCache(FirebaseFirestore db) {
+        this.db = db;
+        this.inFlight = new HashMap<>();
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Returns a cached profile without touching the network.
+     *
+     * @param userId ID of the user.
+     * @return The cached user, or null if it is unknown, expired, or the user does not exist.
+     */
+    @Nullable
+    public synchronized User peek(String userId) {
+        Entry entry = freshEntry(userId);
+        return entry != null ? entry.user : null;
+    }
+
+    /**
+     * Checks whether a fresh entry exists for a user, including users known not to exist.
+     *
+     * @param userId ID of the user.
+     * @return True if the user can be resolved without a read.
+     */
+    public synchronized boolean contains(String userId) {
+        return freshEntry(userId) != null;
+    }
+
+    /**
+     * Returns the profile of a user, reading it from Firestore only if needed.
+     * Concurrent calls for the same user share a single read.
+     *
+     * @param userId ID of the user.
+     * @return Task resolving to the user, or to null if the user does not exist.
+     */
+    public synchronized Task<User> get(@NonNull String userId) {
+        Entry entry = freshEntry(userId);
+        if (entry != null) {
+            return Tasks.forResult(entry.user);
+        }
+
+        Task<User> pending = inFlight.get(userId);
+        if (pending != null) {
+            return pending;
+        }
+
+        TaskCompletionSource<User> source = new TaskCompletionSource<>();
+        inFlight.put(userId, source.getTask());
+
+        db.collection("users").document(userId).get()
+                .addOnSuccessListener(documentSnapshot -> source.setResult(store(userId, documentSnapshot)))
+                .addOnFailureListener(e -> {
+                    finish(userId);
+                    source.setException(e);
+                });
+        return source.getTask();
+    }
+
+    /**
+     * Resolves several users at once.
+     * Users that are neither cached nor already loading are fetched in chunked "in" queries.
+     *
+     * @param userIds IDs of the users to resolve.
+     * @return Task completing once every requested user is resolved or has failed.
+     */
+    public synchronized Task<Void> prefetch(Collection<String> userIds) {
+        List<Task<User>> waiting = new ArrayList<>();
+        Map<String, TaskCompletionSource<User>> toFetch = new LinkedHashMap<>();
+
+        for (String userId : new LinkedHashSet<>(userIds)) {
+            if (userId == null || freshEntry(userId) != null) continue;
+
+            Task<User> pending = inFlight.get(userId);
+            if (pending != null) {
+                waiting.add(pending);
+            } else {
+                TaskCompletionSource<User> source = new TaskCompletionSource<>();
+                inFlight.put(userId, source.getTask());
+                toFetch.put(userId, source);
+                waiting.add(source.getTask());
+            }
+        }
+
+        List<String> ids = new ArrayList<>(toFetch.keySet());
+        for (int i = 0; i < ids.size(); i += WHERE_IN_LIMIT) {
+            List<String> chunk = new ArrayList<>(ids.subList(i, Math.min(i + WHERE_IN_LIMIT, ids.size())));
+            db.collection("users").whereIn(FieldPath.documentId(), chunk).get()
+                    .addOnSuccessListener(querySnapshot -> {
+                        Set<String> unresolved = new LinkedHashSet<>(chunk);
+                        for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
+                            unresolved.remove(doc.getId());
+                            toFetch.get(doc.getId()).setResult(store(doc.getId(), doc));
+                        }
+                        // Users that no longer exist are cached too, so nobody retries them
+                        for (String userId : unresolved) {
+                            toFetch.get(userId).setResult(store(userId, null));
+                        }
+                    })
+                    .addOnFailureListener(e -> {
+                        for (String userId : chunk) {
+                            finish(userId);
+                            toFetch.get(userId).setException(e);
+                        }
+                    });
+        }
+
+        return Tasks.whenAllComplete(waiting).continueWith(task -> null);
+    }
+
+    /**
+     * Stores a profile that was read elsewhere, e.g. by the profile screen.
+     *
+     * @param user User to cache. Its user ID must be set.
+     */
+    public synchronized void put(@NonNull User user) {
+        entries.put(user.getUserId(), new Entry(user, SystemClock.elapsedRealtime()));
+    }
+
+    /**
+     * Drops the cached profile of a user so the next request reads it again.
+     *
+     * @param userId ID of the user.
+     */
+    public synchronized void invalidate(String userId) {
+        entries.remove(userId);
+    }
+
+    /**
+     * Drops every cached profile.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Converts a document into a User, caches it, and ends the in-flight read.
+     *
+     * @param userId           ID of the user.
+     * @param documentSnapshot Document that was read, or null if it does not exist.
+     * @return The cached user, or null if the user does not exist.
+     */
+    private synchronized User store(String userId, @Nullable DocumentSnapshot documentSnapshot) {
+        User user = null;
+        if (documentSnapshot != null && documentSnapshot.exists()) {
+            user = documentSnapshot.toObject(User.class);
+            if (user != null) {
+                user.setUserId(userId);
+            }
+        }
+        entries.put(userId, new Entry(user, SystemClock.elapsedRealtime()));
+        finish(userId);
+        return user;
+    }
+
+    private synchronized void finish(String userId) {
+        inFlight.remove(userId);
+    }
+
+    private Entry freshEntry(String userId) {
+        Entry entry = entries.get(userId);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.loadedAt > TTL_MS) {
+            entries.remove(userId);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Cached profile along with the time it was loaded.
+     */
+    private static class Entry {
+        final User user; // Null when the user does not exist
+        final long loadedAt;
+
+        Entry(User user, long loadedAt) {
+            this.user = user;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Collects small user writes for a short window and commits them together.
+ * Mutations targeting the same thing (e.g. the current user's like of one post) are merged
+ * while pending, so a like→unlike→like burst becomes its net change, and everything left
+ * is flushed through a single WriteBatch. A batch is atomic, so one rejected write would fail
+ * every unrelated mutation in it; when a shared batch fails, each mutation is committed again
+ * on its own, so only the mutations actually rejected fail.
+ * {@link #flush()} should be called when the app goes to the background, so no intent is lost.
+ */
+package com.ensat.retika.data;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WriteCoalescer {
+
+    /**
+     * A pending write that can be merged with later writes to the same target.
+     */
+    public interface Mutation {
+        /**
+         * Identifies the target of the mutation; mutations with the same key are merged.
+         *
+         * @return Key of the mutation.
+         */
+        String key();
+
+        /**
+         * Merges a later mutation with the same key into this one.
+         *
+         * @param later Mutation enqueued after this one.
+         * @return The combined mutation, or null if the two cancel each other out.
+         */
+        @Nullable
+        Mutation mergeWith(@NonNull Mutation later);
+
+        /**
+         * Adds the writes of the mutation to a batch.
+         *
+         * @param batch Batch being flushed.
+         */
+        void applyTo(@NonNull WriteBatch batch);
+
+        /**
+         * Called when the batch carrying the mutation failed.
+         *
+         * @param e Cause of the failure.
+         */
+        void onFailure(@NonNull Exception e);
+    }
+
+    /**
+     * Commits a group of mutations atomically, so the coalescing can run without Firestore.
+     */
+    interface Committer {
+        /**
+         * Writes the mutations in one batch.
+         *
+         * @param mutations Mutations to write, in enqueue order.
+         * @return Task completing once the batch is committed; it fails if any write was rejected.
+         */
+        Task<Void> commit(@NonNull List<Mutation> mutations);
+    }
+
+    private static final long FLUSH_DELAY_MS = 1500; // Window during which writes are collected
+    private static final int MAX_MUTATIONS_PER_BATCH = 100; // Keeps batches well under 500 writes
+
+    private static WriteCoalescer instance;
+
+    private final Committer committer;
+    private final Handler handler;
+    private final Map<String, Pending> pending; // Pending mutations by key, in enqueue order
+    private final Runnable flushRunnable = this::flush;
+    private boolean flushScheduled = false;
+
+    /**
+     * Returns the shared coalescer.
+     *
+     * @return Application-wide WriteCoalescer.
+     */
+    public static synchronized WriteCoalescer getInstance() {
+        if (instance == null) {
+            FirebaseFirestore db = FirebaseFirestore.getInstance();
+            instance = new WriteCoalescer(mutations -> {
+                WriteBatch batch = db.batch();
+                for (Mutation mutation : mutations) {
+                    mutation.applyTo(batch);
+                }
+                return batch.commit();
+            });
+        }
+        return instance;
+    }
+
+    WriteCoalescer(Committer committer) {
+        this.committer = committer;
+        this.handler = new Handler(Looper.getMainLooper());
+        this.pending = new LinkedHashMap<>();
+    }
+
+    /**
+     * Queues a mutation for the next flush, merging it with a pending mutation of the same key.
+     *
+     * @param mutation Mutation to write.
+     * @return Task completing once the mutation is committed, or right away if it
+     * cancelled out a pending mutation.
+     */
+    public synchronized Task<Void> enqueue(@NonNull Mutation mutation) {
+        TaskCompletionSource<Void> source = new TaskCompletionSource<>();
+        Pending existing = pending.get(mutation.key());
+
+        if (existing == null) {
+            Pending entry = new Pending(mutation);
+            entry.sources.add(source);
+            pending.put(mutation.key(), entry);
+        } else {
+            Mutation merged = existing.mutation.mergeWith(mutation);
+            existing.sources.add(source);
+            if (merged == null) {
+                // Net no-op: nothing is written and every caller is done
+                pending.remove(mutation.key());
+                for (TaskCompletionSource<Void> done : existing.sources) {
+                    done.trySetResult(null);
+                }
+            } else {
+                existing.mutation = merged;
+            }
+        }
+
+        if (!flushScheduled && !pending.isEmpty()) {
+            flushScheduled = true;
+            handler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+        }
+        return source.getTask();
+    }
+
+    /**
+     * Commits every pending mutation right away, e.g. when the app goes to the background.
+     *
+     * @return Task completing once all batches are committed.
+     */
+    public Task<Void> flush() {
+        List<Pending> toFlush;
+        synchronized (this) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            toFlush = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        if (toFlush.isEmpty()) {
+            return Tasks.forResult(null);
+        }
+
+        List<Task<Void>> commits = new ArrayList<>();
+        for (int from = 0; from < toFlush.size(); from += MAX_MUTATIONS_PER_BATCH) {
+            List<Pending> chunk = toFlush.subList(from, Math.min(toFlush.size(), from + MAX_MUTATIONS_PER_BATCH));
+            commits.add(commit(new ArrayList<>(chunk)));
+        }
+        return Tasks.whenAll(commits);
+    }
+
+    /**
+     * Writes a group of mutations in one batch and reports the outcome to their callers.
+     * If the batch fails, each mutation is retried in a batch of its own, so the failure
+     * is only reported to the callers whose mutation was rejected.
+     *
+     * @param chunk Mutations to write.
+     * @return Task completing once every mutation is committed or has failed on its own;
+     * it fails if any mutation did.
+     */
+    private Task<Void> commit(List<Pending> chunk) {
+        List<Mutation> mutations = new ArrayList<>();
+        for (Pending entry : chunk) {
+            mutations.add(entry.mutation);
+        }
+
+        return committer.commit(mutations).continueWithTask(task -> {
+            if (task.isSuccessful()) {
+                for (Pending entry : chunk) {
+                    for (TaskCompletionSource<Void> source : entry.sources) {
+                        source.trySetResult(null);
+                    }
+                }
+                return task;
+            }
+
+            if (chunk.size() > 1) {
+                // Isolate the rejected mutations; the others go through on their own
+                List<Task<Void>> retries = new ArrayList<>();
+                for (Pending entry : chunk) {
+                    retries.add(commit(Collections.singletonList(entry)));
+                }
+                return Tasks.whenAll(retries);
+            }
+
+            Exception e = task.getException();
+            Pending entry = chunk.get(0);
+            entry.mutation.onFailure(e);
+            for (TaskCompletionSource<Void> source : entry.sources) {
+                source.trySetException(e);
+            }
+            return task;
+        });
+    }
+
+    /**
+     * A pending mutation and the callers waiting for it.
+     */
+    private static class Pending {
+        Mutation mutation;
+        final List<TaskCompletionSource<Void>> sources = new ArrayList<>();
+
+        Pending(Mutation mutation) {
+            this.mutation = mutation;
+        }
+    }
+}
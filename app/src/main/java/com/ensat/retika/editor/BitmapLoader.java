@@ -0,0 +1,377 @@
+/**
+ * Decodes the photos opened in the post editor, off the main thread.
+ * Bounds are read first, so previews are decoded with an inSampleSize matching the view
+ * instead of allocating the full-resolution bitmap, and the EXIF orientation is applied
+ * so camera photos show upright. Full-resolution decodes are only done for export, and
+ * only the cropped region is decoded when the format allows it.
+ */
+package com.ensat.retika.editor;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+import androidx.exifinterface.media.ExifInterface;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class BitmapLoader {
+
+    // Export decodes are still bounded, a 48 MP photo would not fit in the heap of small devices
+    private static final int MAX_EXPORT_PIXELS = 16 * 1000 * 1000;
+
+    // One decode at a time: decodes are memory-bound, running them in parallel only raises the peak
+    private static final ExecutorService DECODER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bitmap-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ContentResolver contentResolver;
+
+    /**
+     * Constructor for the BitmapLoader.
+     *
+     * @param context Any context, used to open image URIs.
+     */
+    public BitmapLoader(@NonNull Context context) {
+        this.contentResolver = context.getApplicationContext().getContentResolver();
+    }
+
+    /**
+     * Returns the executor decodes run on, for callers chaining more work after a decode.
+     *
+     * @return Background executor of the loader.
+     */
+    public static Executor executor() {
+        return DECODER;
+    }
+
+    /**
+     * Decodes an image for display in a view.
+     * The bitmap is the smallest power-of-two reduction that still covers the requested size.
+     *
+     * @param uri       URI of the image.
+     * @param reqWidth  Width of the view, in pixels.
+     * @param reqHeight Height of the view, in pixels.
+     * @return Task resolving to the upright preview bitmap.
+     */
+    public Task<Bitmap> loadPreview(@NonNull Uri uri, int reqWidth, int reqHeight) {
+        return Tasks.call(DECODER, () -> decode(uri, reqWidth, reqHeight));
+    }
+
+    /**
+     * Decodes an image at full resolution for export, within {@link #MAX_EXPORT_PIXELS}.
+     *
+     * @param uri URI of the image.
+     * @return Task resolving to the upright full-resolution bitmap.
+     */
+    public Task<Bitmap> loadForExport(@NonNull Uri uri) {
+        return Tasks.call(DECODER, () -> decodeForExport(uri));
+    }
+
+    /**
+     * Decodes only a region of an image for export, at full resolution within
+     * {@link #MAX_EXPORT_PIXELS}. Memory then scales with the size of the crop rather than
+     * the size of the photo, e.g. for a square cut out of a panorama.
+     *
+     * @param uri    URI of the image.
+     * @param region Area to decode, in 0..1 coordinates of the upright image,
+     *               such as {@link EditPipeline#sourceRegion()}.
+     * @return Task resolving to the upright bitmap of the region.
+     */
+    public Task<Bitmap> loadRegionForExport(@NonNull Uri uri, @NonNull RectF region) {
+        return Tasks.call(DECODER, () -> decodeRegion(uri, region));
+    }
+
+    /**
+     * Decodes a region of an image, within {@link #MAX_EXPORT_PIXELS}, on the calling thread.
+     * Formats BitmapRegionDecoder cannot read, such as HEIF before Android 9, are decoded
+     * whole and cropped instead.
+     *
+     * @param uri    URI of the image.
+     * @param region Area to decode, in 0..1 coordinates of the upright image.
+     * @return The upright bitmap of the region.
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @WorkerThread
+    public Bitmap decodeRegion(@NonNull Uri uri, @NonNull RectF region) throws IOException {
+        int orientation = readOrientation(uri);
+        BitmapRegionDecoder decoder;
+        try (InputStream in = open(uri)) {
+            decoder = newRegionDecoder(in);
+        } catch (IOException e) {
+            return cropWhole(decodeForExport(uri), region);
+        }
+
+        try {
+            RectF raw = toRawRegion(region, orientation);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            Rect bounds = new Rect(
+                    (int) Math.floor(raw.left * width), (int) Math.floor(raw.top * height),
+                    (int) Math.ceil(raw.right * width), (int) Math.ceil(raw.bottom * height));
+            if (!bounds.intersect(0, 0, width, height)) {
+                throw new IOException("Empty region " + region + " in " + uri);
+            }
+
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = 1;
+            while ((long) (bounds.width() / options.inSampleSize) * (bounds.height() / options.inSampleSize) > MAX_EXPORT_PIXELS) {
+                options.inSampleSize *= 2;
+            }
+            Bitmap bitmap = decoder.decodeRegion(bounds, options);
+            if (bitmap == null) {
+                throw new IOException("Cannot decode " + uri);
+            }
+            return applyOrientation(bitmap, orientation);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Opens a region decoder with the factory of the running API level.
+     *
+     * @param in Stream of the encoded image.
+     * @return The region decoder.
+     * @throws IOException if the format is not supported or the image cannot be read.
+     */
+    @SuppressWarnings("deprecation")
+    private static BitmapRegionDecoder newRegionDecoder(InputStream in) throws IOException {
+        BitmapRegionDecoder decoder = Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                ? BitmapRegionDecoder.newInstance(in)
+                : BitmapRegionDecoder.newInstance(in, false); // isShareable is ignored since API 19
+        if (decoder == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return decoder;
+    }
+
+    /**
+     * Maps a region of the upright image to the image as stored, undoing the EXIF orientation.
+     *
+     * @param region      Region in 0..1 coordinates of the upright image.
+     * @param orientation EXIF orientation of the image.
+     * @return The region in 0..1 coordinates of the stored image.
+     */
+    static RectF toRawRegion(RectF region, int orientation) {
+        float l = region.left, t = region.top, r = region.right, b = region.bottom;
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                return new RectF(1 - r, t, 1 - l, b);
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return new RectF(1 - r, 1 - b, 1 - l, 1 - t);
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return new RectF(l, 1 - b, r, 1 - t);
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return new RectF(t, l, b, r);
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return new RectF(t, 1 - r, b, 1 - l);
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return new RectF(1 - b, 1 - r, 1 - t, 1 - l);
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return new RectF(1 - b, l, 1 - t, r);
+            default:
+                return new RectF(region);
+        }
+    }
+
+    /**
+     * Decodes an image at full resolution, within {@link #MAX_EXPORT_PIXELS}, on the calling thread.
+     *
+     * @param uri URI of the image.
+     * @return The upright bitmap.
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @WorkerThread
+    public Bitmap decodeForExport(@NonNull Uri uri) throws IOException {
+        BitmapFactory.Options bounds = readBounds(uri);
+        int sampleSize = 1;
+        while ((long) (bounds.outWidth / sampleSize) * (bounds.outHeight / sampleSize) > MAX_EXPORT_PIXELS) {
+            sampleSize *= 2;
+        }
+        return decodeSampled(uri, sampleSize);
+    }
+
+    /**
+     * Decodes an image covering the requested size, on the calling thread.
+     *
+     * @param uri       URI of the image.
+     * @param reqWidth  Requested width, in pixels, after orientation.
+     * @param reqHeight Requested height, in pixels, after orientation.
+     * @return The upright bitmap.
+     * @throws IOException if the image cannot be read or decoded.
+     */
+    @WorkerThread
+    public Bitmap decode(@NonNull Uri uri, int reqWidth, int reqHeight) throws IOException {
+        BitmapFactory.Options bounds = readBounds(uri);
+        int orientation = readOrientation(uri);
+        boolean swapped = isTransposed(orientation);
+        int width = swapped ? bounds.outHeight : bounds.outWidth;
+        int height = swapped ? bounds.outWidth : bounds.outHeight;
+        return decodeSampled(uri, sampleSizeFor(width, height, reqWidth, reqHeight), orientation);
+    }
+
+    /**
+     * Computes the largest power-of-two sample size that keeps both sides at or above
+     * the requested size.
+     *
+     * @param width     Width of the source image.
+     * @param height    Height of the source image.
+     * @param reqWidth  Requested width.
+     * @param reqHeight Requested height.
+     * @return Sample size to decode with, at least 1.
+     */
+    public static int sampleSizeFor(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Reads the dimensions of an image without decoding its pixels.
+     *
+     * @param uri URI of the image.
+     * @return Options holding the raw width and height of the image.
+     * @throws IOException if the image cannot be read or is not an image.
+     */
+    @WorkerThread
+    BitmapFactory.Options readBounds(Uri uri) throws IOException {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(uri)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not an image: " + uri);
+        }
+        return bounds;
+    }
+
+    /**
+     * Reads the EXIF orientation of an image.
+     *
+     * @param uri URI of the image.
+     * @return One of the ExifInterface ORIENTATION_ constants, ORIENTATION_NORMAL if unknown.
+     */
+    @WorkerThread
+    int readOrientation(Uri uri) {
+        try (InputStream in = open(uri)) {
+            return new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (IOException e) {
+            return ExifInterface.ORIENTATION_NORMAL; // No EXIF data, e.g. a PNG
+        }
+    }
+
+    /**
+     * Rotates or flips a decoded bitmap as its EXIF orientation says.
+     *
+     * @param bitmap      Bitmap as stored.
+     * @param orientation EXIF orientation of the image.
+     * @return The upright bitmap; the input is recycled if a new one was created.
+     */
+    static Bitmap applyOrientation(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return bitmap;
+        }
+        Bitmap upright = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (upright != bitmap) {
+            bitmap.recycle();
+        }
+        return upright;
+    }
+
+    /**
+     * Checks whether an orientation swaps the width and height of the image.
+     *
+     * @param orientation EXIF orientation.
+     * @return True for the 90 and 270 degree orientations.
+     */
+    static boolean isTransposed(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_TRANSPOSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    private static Bitmap cropWhole(Bitmap bitmap, RectF region) {
+        int x = Math.round(region.left * bitmap.getWidth());
+        int y = Math.round(region.top * bitmap.getHeight());
+        int width = Math.max(1, Math.min(bitmap.getWidth() - x, Math.round(region.width() * bitmap.getWidth())));
+        int height = Math.max(1, Math.min(bitmap.getHeight() - y, Math.round(region.height() * bitmap.getHeight())));
+        Bitmap cropped = Bitmap.createBitmap(bitmap, x, y, width, height);
+        if (cropped != bitmap) {
+            bitmap.recycle();
+        }
+        return cropped;
+    }
+
+    InputStream open(Uri uri) throws IOException {
+        InputStream in = contentResolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException("Cannot open " + uri);
+        }
+        return in;
+    }
+
+    private Bitmap decodeSampled(Uri uri, int sampleSize) throws IOException {
+        return decodeSampled(uri, sampleSize, readOrientation(uri));
+    }
+
+    private Bitmap decodeSampled(Uri uri, int sampleSize, int orientation) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        Bitmap bitmap;
+        try (InputStream in = open(uri)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Cannot decode " + uri);
+        }
+        return applyOrientation(bitmap, orientation);
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Brightness, adding the same offset to every channel like GPUImageBrightnessFilter.
+ * The result of each channel value is precomputed in a 256-entry table.
+ */
+package com.ensat.retika.editor;
+
+public class BrightnessFilter implements ImageFilter {
+
+    private final int[] table; // Output value of each input channel value
+
+    /**
+     * Constructor for the BrightnessFilter.
+     *
+     * @param brightness Offset from -1 (black) to 1 (white), 0 keeps the image unchanged.
+     */
+    public BrightnessFilter(float brightness) {
+        int offset = Math.round(brightness * 255);
+        table = new int[256];
+        for (int value = 0; value < 256; value++) {
+            table[value] = Math.max(0, Math.min(255, value + offset));
+        }
+    }
+
+    @Override
+    public void apply(int[] pixels, int from, int to) {
+        int[] table = this.table;
+        for (int i = from; i < to; i++) {
+            int argb = pixels[i];
+            pixels[i] = (argb & 0xFF000000)
+                    | (table[(argb >> 16) & 0xFF] << 16)
+                    | (table[(argb >> 8) & 0xFF] << 8)
+                    | table[argb & 0xFF];
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/**
+ * Non-destructive list of the edits made in the post editor: crops, rotations and filters.
+ * Edits are recorded as small operations instead of bitmaps, so undo and redo only move a
+ * cursor in the list and memory does not grow with the number of edits.
+ * The operations are composed into a single render: every crop and rotation folds into one
+ * source region and one matrix, applied in one bitmap pass at preview or export resolution,
+ * followed by at most one filter pass.
+ */
+package com.ensat.retika.editor;
+
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jp.co.cyberagent.android.gpuimage.filter.GPUImageBrightnessFilter;
+import jp.co.cyberagent.android.gpuimage.filter.GPUImageFilter;
+import jp.co.cyberagent.android.gpuimage.filter.GPUImageGrayscaleFilter;
+import jp.co.cyberagent.android.gpuimage.filter.GPUImageSepiaToneFilter;
+
+public class EditPipeline {
+
+    /**
+     * An edit operation. Operations are immutable.
+     */
+    public interface EditOp {
+    }
+
+    /**
+     * Crops the image as it looks after the previous operations.
+     */
+    public static class CropOp implements EditOp {
+        final RectF rect; // Kept area, in 0..1 coordinates of the image as displayed
+
+        /**
+         * Constructor for the CropOp.
+         *
+         * @param rect Area to keep, in 0..1 coordinates of the image as displayed.
+         */
+        public CropOp(@NonNull RectF rect) {
+            this.rect = new RectF(rect);
+        }
+
+        /**
+         * Creates a crop keeping the largest centered square.
+         *
+         * @param width  Width of the image as displayed.
+         * @param height Height of the image as displayed.
+         * @return The crop operation.
+         */
+        public static CropOp centeredSquare(int width, int height) {
+            return centered(width, height, 1f);
+        }
+
+        /**
+         * Creates a crop keeping the largest centered area of a fixed aspect ratio.
+         * Freeform crops use the constructor with any rectangle instead.
+         *
+         * @param width       Width of the image as displayed.
+         * @param height      Height of the image as displayed.
+         * @param aspectRatio Width divided by height of the kept area, e.g. 0.8 for 4:5.
+         * @return The crop operation.
+         */
+        public static CropOp centered(int width, int height, float aspectRatio) {
+            float ratio = (float) width / height;
+            if (ratio > aspectRatio) {
+                float inset = (1 - aspectRatio / ratio) / 2;
+                return new CropOp(new RectF(inset, 0, 1 - inset, 1));
+            }
+            float inset = (1 - ratio / aspectRatio) / 2;
+            return new CropOp(new RectF(0, inset, 1, 1 - inset));
+        }
+    }
+
+    /**
+     * Rotates the image clockwise by a multiple of 90 degrees.
+     */
+    public static class RotateOp implements EditOp {
+        final int degrees;
+
+        /**
+         * Constructor for the RotateOp.
+         *
+         * @param degrees Clockwise rotation, a multiple of 90.
+         */
+        public RotateOp(int degrees) {
+            this.degrees = ((degrees % 360) + 360) % 360;
+        }
+    }
+
+    /**
+     * Applies a color filter, replacing any earlier filter.
+     */
+    public static class FilterOp implements EditOp, FilterRenderScheduler.FilterFactory {
+        public static final int SEPIA = 0;
+        public static final int GRAYSCALE = 1;
+        public static final int BRIGHTNESS = 2;
+
+        final int type; // One of the filter type constants
+        final float amount; // Strength of the filter; its meaning depends on the type
+
+        /**
+         * Constructor for the FilterOp.
+         *
+         * @param type   Filter type: {@link #SEPIA}, {@link #GRAYSCALE} or {@link #BRIGHTNESS}.
+         * @param amount Sepia intensity from 0 to 1, or brightness from -1 to 1; ignored for grayscale.
+         */
+        public FilterOp(int type, float amount) {
+            this.type = type;
+            this.amount = amount;
+        }
+
+        /**
+         * Returns the filter type.
+         *
+         * @return One of the filter type constants.
+         */
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * Returns the strength of the filter.
+         *
+         * @return Sepia intensity or brightness; unused for grayscale.
+         */
+        public float getAmount() {
+            return amount;
+        }
+
+        @Override
+        public GPUImageFilter create() {
+            switch (type) {
+                case SEPIA:
+                    return new GPUImageSepiaToneFilter(amount);
+                case GRAYSCALE:
+                    return new GPUImageGrayscaleFilter();
+                default:
+                    return new GPUImageBrightnessFilter(amount);
+            }
+        }
+
+        @Override
+        public ImageFilter createFallback() {
+            switch (type) {
+                case SEPIA:
+                    return new SepiaFilter(amount);
+                case GRAYSCALE:
+                    return new GrayscaleFilter();
+                default:
+                    return new BrightnessFilter(amount);
+            }
+        }
+    }
+
+    private final List<EditOp> ops; // Recorded operations, including undone ones
+    private int applied; // Number of operations in effect; the rest can be redone
+
+    /**
+     * Constructor for an empty EditPipeline.
+     */
+    public EditPipeline() {
+        this.ops = new ArrayList<>();
+        this.applied = 0;
+    }
+
+    /**
+     * Records an operation. Undone operations can no longer be redone.
+     *
+     * @param op Operation to apply.
+     */
+    public synchronized void push(@NonNull EditOp op) {
+        ops.subList(applied, ops.size()).clear();
+        ops.add(op);
+        applied++;
+    }
+
+    /**
+     * Checks whether an operation can be undone.
+     *
+     * @return True if at least one operation is in effect.
+     */
+    public synchronized boolean canUndo() {
+        return applied > 0;
+    }
+
+    /**
+     * Checks whether an undone operation can be redone.
+     *
+     * @return True if an operation was undone and nothing was pushed since.
+     */
+    public synchronized boolean canRedo() {
+        return applied < ops.size();
+    }
+
+    /**
+     * Undoes the last operation in effect.
+     */
+    public synchronized void undo() {
+        if (applied > 0) applied--;
+    }
+
+    /**
+     * Redoes the last undone operation.
+     */
+    public synchronized void redo() {
+        if (applied < ops.size()) applied++;
+    }
+
+    /**
+     * Drops every operation, e.g. when another photo is picked.
+     */
+    public synchronized void clear() {
+        ops.clear();
+        applied = 0;
+    }
+
+    /**
+     * Checks whether any operation is in effect.
+     *
+     * @return True if the image is unedited.
+     */
+    public synchronized boolean isEmpty() {
+        return applied == 0;
+    }
+
+    /**
+     * Returns the operations in effect.
+     *
+     * @return Unmodifiable copy of the operations, oldest first.
+     */
+    public synchronized List<EditOp> getOps() {
+        return Collections.unmodifiableList(new ArrayList<>(ops.subList(0, applied)));
+    }
+
+    /**
+     * Returns a copy holding only the operations in effect, safe to render on another thread
+     * while this pipeline keeps being edited.
+     *
+     * @return Snapshot of the pipeline.
+     */
+    public synchronized EditPipeline snapshot() {
+        EditPipeline copy = new EditPipeline();
+        copy.ops.addAll(ops.subList(0, applied));
+        copy.applied = applied;
+        return copy;
+    }
+
+    /**
+     * Returns the part of the source kept by the crops in effect.
+     *
+     * @return Kept area, in 0..1 coordinates of the unrotated source.
+     */
+    public synchronized RectF sourceRegion() {
+        return geometry().region;
+    }
+
+    /**
+     * Returns the total clockwise rotation of the operations in effect.
+     *
+     * @return Rotation in degrees: 0, 90, 180 or 270.
+     */
+    public synchronized int rotation() {
+        return geometry().rotation;
+    }
+
+    /**
+     * Returns the filter in effect.
+     *
+     * @return The last filter operation, or null if none is in effect.
+     */
+    @Nullable
+    public synchronized FilterOp filter() {
+        for (int i = applied - 1; i >= 0; i--) {
+            if (ops.get(i) instanceof FilterOp) return (FilterOp) ops.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Computes the size of the edited image.
+     *
+     * @param sourceWidth  Width of the source.
+     * @param sourceHeight Height of the source.
+     * @return Width and height of the result, before any scaling.
+     */
+    public synchronized int[] outputSize(int sourceWidth, int sourceHeight) {
+        Geometry geometry = geometry();
+        int width = Math.max(1, Math.round(geometry.region.width() * sourceWidth));
+        int height = Math.max(1, Math.round(geometry.region.height() * sourceHeight));
+        return geometry.rotation % 180 == 0 ? new int[]{width, height} : new int[]{height, width};
+    }
+
+    /**
+     * Applies the crops and rotations in effect in a single bitmap pass.
+     *
+     * @param source  Bitmap to edit, left untouched. It may be the whole source or, as produced
+     *                by a region decode, only its {@link #sourceRegion()}.
+     * @param isRegion True if the source already holds only the source region.
+     * @param maxSide Longest side of the result in pixels, or 0 to keep the source resolution.
+     * @return The cropped, rotated and scaled bitmap; the source itself if nothing changes.
+     */
+    public synchronized Bitmap applyGeometry(@NonNull Bitmap source, boolean isRegion, int maxSide) {
+        Geometry geometry = geometry();
+        RectF region = isRegion ? new RectF(0, 0, 1, 1) : geometry.region;
+
+        int x = Math.round(region.left * source.getWidth());
+        int y = Math.round(region.top * source.getHeight());
+        int width = Math.max(1, Math.min(source.getWidth() - x, Math.round(region.width() * source.getWidth())));
+        int height = Math.max(1, Math.min(source.getHeight() - y, Math.round(region.height() * source.getHeight())));
+
+        Matrix matrix = new Matrix();
+        matrix.setRotate(geometry.rotation);
+        int longest = Math.max(width, height);
+        if (maxSide > 0 && longest > maxSide) {
+            float scale = (float) maxSide / longest;
+            matrix.postScale(scale, scale);
+        }
+        if (x == 0 && y == 0 && width == source.getWidth() && height == source.getHeight() && matrix.isIdentity()) {
+            return source;
+        }
+        return Bitmap.createBitmap(source, x, y, width, height, matrix, true);
+    }
+
+    /**
+     * Folds the crops and rotations in effect into one source region and one rotation.
+     * Each crop is expressed on the image as displayed, so it is mapped back through
+     * the rotation in effect at that point before narrowing the region.
+     *
+     * @return The combined geometry.
+     */
+    private Geometry geometry() {
+        Geometry geometry = new Geometry();
+        for (int i = 0; i < applied; i++) {
+            EditOp op = ops.get(i);
+            if (op instanceof RotateOp) {
+                geometry.rotation = (geometry.rotation + ((RotateOp) op).degrees) % 360;
+            } else if (op instanceof CropOp) {
+                RectF local = unrotate(((CropOp) op).rect, geometry.rotation);
+                RectF region = geometry.region;
+                geometry.region = new RectF(
+                        region.left + local.left * region.width(),
+                        region.top + local.top * region.height(),
+                        region.left + local.right * region.width(),
+                        region.top + local.bottom * region.height());
+            }
+        }
+        return geometry;
+    }
+
+    /**
+     * Maps a rectangle of the displayed image back to the unrotated image.
+     *
+     * @param rect     Rectangle in 0..1 coordinates of the displayed image.
+     * @param rotation Clockwise rotation of the displayed image.
+     * @return The rectangle in 0..1 coordinates of the unrotated image.
+     */
+    private static RectF unrotate(RectF rect, int rotation) {
+        switch (rotation) {
+            case 90:
+                return new RectF(rect.top, 1 - rect.right, rect.bottom, 1 - rect.left);
+            case 180:
+                return new RectF(1 - rect.right, 1 - rect.bottom, 1 - rect.left, 1 - rect.top);
+            case 270:
+                return new RectF(1 - rect.bottom, rect.left, 1 - rect.top, rect.right);
+            default:
+                return new RectF(rect);
+        }
+    }
+
+    /**
+     * Crop region and rotation resulting from a list of operations.
+     */
+    private static class Geometry {
+        RectF region = new RectF(0, 0, 1, 1); // Kept area of the unrotated source
+        int rotation = 0; // Clockwise, in degrees
+    }
+}
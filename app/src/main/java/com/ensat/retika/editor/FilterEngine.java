@@ -0,0 +1,97 @@
+/**
+ * Runs an {@link ImageFilter} over a pixel buffer on several cores.
+ * The buffer is split in halves on a ForkJoinPool until tiles are small enough to fit in
+ * the CPU caches, and idle threads steal the remaining tiles. Tiles are ranges of the buffer,
+ * so they are filtered in place and no pixel is copied.
+ */
+package com.ensat.retika.editor;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class FilterEngine {
+
+    // Pixels filtered by one task without splitting further: 256 KB of pixels per tile
+    static final int TILE_PIXELS = 64 * 1024;
+
+    private static FilterEngine instance;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor for a FilterEngine with its own pool.
+     *
+     * @param parallelism Number of worker threads.
+     */
+    public FilterEngine(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Returns the shared engine, using one thread per core.
+     * ForkJoinPool.commonPool() requires API 24, so the engine keeps its own pool.
+     *
+     * @return The shared FilterEngine.
+     */
+    public static synchronized FilterEngine getInstance() {
+        if (instance == null) {
+            instance = new FilterEngine(Runtime.getRuntime().availableProcessors());
+        }
+        return instance;
+    }
+
+    /**
+     * Filters a whole buffer in place and waits for every tile.
+     *
+     * @param filter Filter to apply.
+     * @param pixels Pixels packed as 0xAARRGGBB.
+     */
+    public void apply(@NonNull ImageFilter filter, @NonNull int[] pixels) {
+        apply(filter, pixels, 0, pixels.length);
+    }
+
+    /**
+     * Filters a range of a buffer in place and waits for every tile.
+     *
+     * @param filter Filter to apply.
+     * @param pixels Pixels packed as 0xAARRGGBB.
+     * @param from   Index of the first pixel to filter.
+     * @param to     Index after the last pixel to filter.
+     */
+    public void apply(@NonNull ImageFilter filter, @NonNull int[] pixels, int from, int to) {
+        if (to - from <= TILE_PIXELS) {
+            filter.apply(pixels, from, to); // Not worth a hop to the pool
+            return;
+        }
+        pool.invoke(new TileTask(filter, pixels, from, to));
+    }
+
+    /**
+     * Filters a range, splitting it in halves until it is one tile.
+     */
+    private static class TileTask extends RecursiveAction {
+        private final ImageFilter filter;
+        private final int[] pixels;
+        private final int from;
+        private final int to;
+
+        TileTask(ImageFilter filter, int[] pixels, int from, int to) {
+            this.filter = filter;
+            this.pixels = pixels;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= TILE_PIXELS) {
+                filter.apply(pixels, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new TileTask(filter, pixels, from, middle), new TileTask(filter, pixels, middle, to));
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Renders the {@link EditPipeline} of the post editor on a background thread.
+ * Previews are rendered at preview resolution, and only the latest request matters:
+ * a new edit cancels a render that has not finished, so the result of a stale
+ * edit never reaches the screen and at most one preview is queued.
+ * Export renders go through the same thread at full resolution, once, and are never cancelled.
+ * If GPUImage cannot render, e.g. without a usable GL context, filters fall back to the
+ * CPU {@link FilterEngine}.
+ */
+package com.ensat.retika.editor;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.google.android.gms.tasks.CancellationTokenSource;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jp.co.cyberagent.android.gpuimage.GPUImage;
+import jp.co.cyberagent.android.gpuimage.filter.GPUImageFilter;
+
+public class FilterRenderScheduler {
+
+    /**
+     * Creates a filter for one render; a GPUImage filter is bound to the GL context it ran in.
+     */
+    public interface FilterFactory {
+        /**
+         * Creates a new instance of the filter.
+         *
+         * @return The filter.
+         */
+        GPUImageFilter create();
+
+        /**
+         * Creates the CPU equivalent of the filter, used when GPUImage fails.
+         *
+         * @return The filter.
+         */
+        ImageFilter createFallback();
+    }
+
+    private static final String TAG = "FilterRenderScheduler";
+    private static final int FALLBACK_BAND_ROWS = 256; // Rows copied out of the bitmap at a time
+
+    // Every render shares one thread, so only one offscreen GL context exists at a time
+    private static final ExecutorService RENDERER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "filter-render");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Context context;
+    private final int previewSize; // Longest side of preview renders, in pixels
+    private CancellationTokenSource previewToken; // Cancels the pending preview render
+
+    /**
+     * Constructor for the FilterRenderScheduler.
+     *
+     * @param context     Any context; the application context is kept.
+     * @param previewSize Longest side of preview renders, in pixels, e.g. the screen width.
+     */
+    public FilterRenderScheduler(@NonNull Context context, int previewSize) {
+        this.context = context.getApplicationContext();
+        this.previewSize = previewSize;
+    }
+
+    /**
+     * Renders the edits over a source at preview resolution, cancelling the previous preview.
+     * Must be called from the main thread.
+     *
+     * @param source Bitmap to edit, left untouched.
+     * @param edits  Edits to render; a snapshot is taken, so editing may go on meanwhile.
+     * @return Task resolving to the preview, or cancelled if superseded.
+     */
+    public Task<Bitmap> renderPreview(@NonNull Bitmap source, @NonNull EditPipeline edits) {
+        cancelPreview();
+        CancellationTokenSource token = new CancellationTokenSource();
+        previewToken = token;
+        TaskCompletionSource<Bitmap> result = new TaskCompletionSource<>(token.getToken());
+        EditPipeline snapshot = edits.snapshot();
+
+        RENDERER.execute(() -> {
+            if (token.getToken().isCancellationRequested()) return; // Superseded before it started
+            try {
+                Bitmap rendered = render(source, false, snapshot, previewSize);
+                if (!result.trySetResult(rendered) && rendered != source) {
+                    rendered.recycle(); // Superseded while rendering
+                }
+            } catch (RuntimeException e) {
+                result.trySetException(e);
+            }
+        });
+        return result.getTask();
+    }
+
+    /**
+     * Renders the edits over a full-resolution bitmap for export.
+     * Queued after the current preview and never cancelled.
+     *
+     * @param source   Bitmap to edit; it is recycled once rendered.
+     * @param isRegion True if the source was decoded from the crop region of the edits only.
+     * @param edits    Edits to render; a snapshot is taken.
+     * @return Task resolving to the edited bitmap.
+     */
+    public Task<Bitmap> renderExport(@NonNull Bitmap source, boolean isRegion, @NonNull EditPipeline edits) {
+        cancelPreview(); // Nothing left to preview, the export takes the thread
+        EditPipeline snapshot = edits.snapshot();
+        return Tasks.call(RENDERER, () -> {
+            Bitmap rendered = render(source, isRegion, snapshot, 0);
+            if (rendered != source) {
+                source.recycle();
+            }
+            return rendered;
+        });
+    }
+
+    /**
+     * Cancels the pending preview render, if any.
+     */
+    public void cancelPreview() {
+        if (previewToken != null) {
+            previewToken.cancel();
+            previewToken = null;
+        }
+    }
+
+    /**
+     * Renders edits in two passes at most: one for the whole geometry, one for the filter.
+     *
+     * @param source   Bitmap to edit, left untouched.
+     * @param isRegion True if the source holds only the crop region of the edits.
+     * @param edits    Edits to render.
+     * @param maxSide  Longest side of the result, or 0 to keep the source resolution.
+     * @return The edited bitmap; the source itself if there is nothing to do.
+     */
+    private Bitmap render(Bitmap source, boolean isRegion, EditPipeline edits, int maxSide) {
+        Bitmap shaped = edits.applyGeometry(source, isRegion, maxSide);
+        FilterFactory filter = edits.filter();
+        if (filter == null) return shaped;
+
+        Bitmap filtered = null;
+        try {
+            GPUImage gpuImage = new GPUImage(context);
+            gpuImage.setFilter(filter.create());
+            filtered = gpuImage.getBitmapWithFilterApplied(shaped);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "GPUImage failed, filtering on the CPU", e);
+        }
+        if (filtered == null) {
+            filtered = filterOnCpu(shaped, shaped != source, filter.createFallback());
+        }
+        if (shaped != source && shaped != filtered) {
+            shaped.recycle();
+        }
+        return filtered;
+    }
+
+    /**
+     * Filters a bitmap with the CPU engine, a band of rows at a time so only one band
+     * of pixels is held outside the bitmap.
+     *
+     * @param bitmap  Bitmap to filter.
+     * @param inPlace True if the bitmap may be modified, when mutable.
+     * @param filter  Filter to apply.
+     * @return The filtered bitmap; the input itself if it was filtered in place.
+     */
+    private static Bitmap filterOnCpu(Bitmap bitmap, boolean inPlace, ImageFilter filter) {
+        Bitmap target = inPlace && bitmap.isMutable() ? bitmap : bitmap.copy(Bitmap.Config.ARGB_8888, true);
+        int width = target.getWidth();
+        int height = target.getHeight();
+        int[] band = new int[width * Math.min(FALLBACK_BAND_ROWS, height)];
+        FilterEngine engine = FilterEngine.getInstance();
+        for (int top = 0; top < height; top += FALLBACK_BAND_ROWS) {
+            int rows = Math.min(FALLBACK_BAND_ROWS, height - top);
+            target.getPixels(band, 0, width, 0, top, width, rows);
+            engine.apply(filter, band, 0, width * rows);
+            target.setPixels(band, 0, width, 0, top, width, rows);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * Grayscale, with the luminance weights of GPUImageGrayscaleFilter in 10-bit fixed point.
+ */
+package com.ensat.retika.editor;
+
+public class GrayscaleFilter implements ImageFilter {
+
+    // 0.2125, 0.7154 and 0.0721 scaled by 1024; they sum to 1024 so white stays white
+    private static final int RED_WEIGHT = 218;
+    private static final int GREEN_WEIGHT = 732;
+    private static final int BLUE_WEIGHT = 74;
+
+    @Override
+    public void apply(int[] pixels, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int argb = pixels[i];
+            int luminance = (RED_WEIGHT * ((argb >> 16) & 0xFF)
+                    + GREEN_WEIGHT * ((argb >> 8) & 0xFF)
+                    + BLUE_WEIGHT * (argb & 0xFF)) >> 10;
+            pixels[i] = (argb & 0xFF000000) | (luminance << 16) | (luminance << 8) | luminance;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * Color filter working on ARGB pixels in plain Java, with no Android or OpenGL dependency.
+ * Filters only change a pixel from its own value, so any range of a buffer can be filtered
+ * independently of the rest; {@link FilterEngine} relies on this to split work into tiles.
+ * It mirrors the GPUImage filters of the editor, as a fallback when no GL context is
+ * available and as a reference that runs on a plain JVM.
+ */
+package com.ensat.retika.editor;
+
+public interface ImageFilter {
+
+    /**
+     * Filters a range of pixels in place. Implementations must not allocate per pixel
+     * and must be safe to call from several threads on disjoint ranges.
+     *
+     * @param pixels Pixels packed as 0xAARRGGBB, as returned by Bitmap.getPixels.
+     * @param from   Index of the first pixel to filter.
+     * @param to     Index after the last pixel to filter.
+     */
+    void apply(int[] pixels, int from, int to);
+}
@@ -0,0 +1,54 @@
+/**
+ * Sepia tone, with the color matrix and intensity blend of GPUImageSepiaToneFilter.
+ * Coefficients are premultiplied into 10-bit fixed point so the inner loop only uses integers.
+ */
+package com.ensat.retika.editor;
+
+public class SepiaFilter implements ImageFilter {
+
+    private static final int ONE = 1 << 10; // Fixed-point 1.0
+
+    private final int rr, rg, rb; // Red output weights of the red, green and blue inputs
+    private final int gr, gg, gb; // Green output weights
+    private final int br, bg, bb; // Blue output weights
+
+    /**
+     * Constructor for the SepiaFilter.
+     *
+     * @param intensity 0 keeps the original colors, 1 applies the full sepia tone.
+     */
+    public SepiaFilter(float intensity) {
+        float keep = 1 - intensity;
+        rr = fixed(intensity * 0.3588f + keep);
+        rg = fixed(intensity * 0.7044f);
+        rb = fixed(intensity * 0.1368f);
+        gr = fixed(intensity * 0.2990f);
+        gg = fixed(intensity * 0.5870f + keep);
+        gb = fixed(intensity * 0.1140f);
+        br = fixed(intensity * 0.2392f);
+        bg = fixed(intensity * 0.4696f);
+        bb = fixed(intensity * 0.0912f + keep);
+    }
+
+    @Override
+    public void apply(int[] pixels, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int argb = pixels[i];
+            int r = (argb >> 16) & 0xFF;
+            int g = (argb >> 8) & 0xFF;
+            int b = argb & 0xFF;
+            int outR = clamp((rr * r + rg * g + rb * b) >> 10);
+            int outG = clamp((gr * r + gg * g + gb * b) >> 10);
+            int outB = clamp((br * r + bg * g + bb * b) >> 10);
+            pixels[i] = (argb & 0xFF000000) | (outR << 16) | (outG << 8) | outB;
+        }
+    }
+
+    private static int fixed(float value) {
+        return Math.round(value * ONE);
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+}
@@ -1,6 +1,7 @@
 /**
  * Model class representing a Post.
  * Contains post information such as ID, user ID, image URL, caption, timestamp, likes, and comments.
+ * A post is not modified once listed: a change is a new Post, so list diffs can compare the two.
  */
 package com.ensat.retika.models;
 
@@ -9,11 +10,19 @@ import java.util.List;
 public class Post {
     private String postId;
     private String userId;
-    private String imageUrl;
+    private String imageUrl; // URL of the original image
+    private String thumbnailUrl; // URL of the grid-sized rendition, null for older posts
+    private String feedImageUrl; // URL of the feed-sized rendition, null for older posts
     private String caption;
     private long timestamp;
     private List<String> likedBy; // List of user IDs who liked this post
-    private List<Comment> comments; // List of comments
+    private List<Comment> comments; // Legacy embedded comments; new ones live in posts/{id}/comments
+    private long commentCount; // Number of comments in the comments subcollection
+    private long likeCount; // Number of likes, not counting the shards
+    private int likeShards; // Number of shards of the like counter, 0 if not sharded
+    private String authorUsername; // Author's username, denormalized into feed items
+    private String authorAvatarUrl; // Author's profile picture URL, denormalized into feed items
+    private List<Comment> recentComments; // First comments of the post, denormalized into feed items
 
     /**
      * Default constructor for Firestore.
@@ -146,7 +155,9 @@ public class Post {
     }
 
     /**
-     * Gets the list of comments associated with this post.
+     * Gets the comments embedded in the post document.
+     * Only posts created before comments moved to the posts/{id}/comments subcollection
+     * have them; they are kept for display and never written again.
      *
      * @return List of comments.
      */
@@ -155,11 +166,156 @@ public class Post {
     }
 
     /**
-     * Sets the list of comments associated with this post.
+     * Sets the comments embedded in the post document.
      *
      * @param comments List of comments.
      */
     public void setComments(List<Comment> comments) {
         this.comments = comments;
     }
-}
\ No newline at end of file
+
+    /**
+     * Gets the number of comments stored in the comments subcollection.
+     *
+     * @return Comment count.
+     */
+    public long getCommentCount() {
+        return commentCount;
+    }
+
+    /**
+     * Sets the number of comments stored in the comments subcollection.
+     *
+     * @param commentCount Comment count.
+     */
+    public void setCommentCount(long commentCount) {
+        this.commentCount = commentCount;
+    }
+
+    /**
+     * Gets the number of likes of the post.
+     *
+     * @return Like count.
+     */
+    public long getLikeCount() {
+        return likeCount;
+    }
+
+    /**
+     * Sets the number of likes of the post.
+     *
+     * @param likeCount Like count.
+     */
+    public void setLikeCount(long likeCount) {
+        this.likeCount = likeCount;
+    }
+
+    /**
+     * Gets the author's username. Only set on posts read from the feed projection.
+     *
+     * @return Username, or null if not denormalized.
+     */
+    public String getAuthorUsername() {
+        return authorUsername;
+    }
+
+    /**
+     * Sets the author's username.
+     *
+     * @param authorUsername Username.
+     */
+    public void setAuthorUsername(String authorUsername) {
+        this.authorUsername = authorUsername;
+    }
+
+    /**
+     * Gets the author's profile picture URL. Only set on posts read from the feed projection.
+     *
+     * @return Profile picture URL, or null if not denormalized or not set.
+     */
+    public String getAuthorAvatarUrl() {
+        return authorAvatarUrl;
+    }
+
+    /**
+     * Sets the author's profile picture URL.
+     *
+     * @param authorAvatarUrl Profile picture URL.
+     */
+    public void setAuthorAvatarUrl(String authorAvatarUrl) {
+        this.authorAvatarUrl = authorAvatarUrl;
+    }
+
+    /**
+     * Gets the first comments of the post. Only set on posts read from the feed projection.
+     *
+     * @return Up to two comments, oldest first.
+     */
+    public List<Comment> getRecentComments() {
+        return recentComments;
+    }
+
+    /**
+     * Sets the first comments of the post.
+     *
+     * @param recentComments Up to two comments, oldest first.
+     */
+    public void setRecentComments(List<Comment> recentComments) {
+        this.recentComments = recentComments;
+    }
+
+    /**
+     * Gets the number of shards of the like counter.
+     * Once sharded, the like count is the likeCount field plus the sum of the shards.
+     *
+     * @return Number of shards, or 0 if the counter is not sharded.
+     */
+    public int getLikeShards() {
+        return likeShards;
+    }
+
+    /**
+     * Sets the number of shards of the like counter.
+     *
+     * @param likeShards Number of shards, or 0 if the counter is not sharded.
+     */
+    public void setLikeShards(int likeShards) {
+        this.likeShards = likeShards;
+    }
+
+    /**
+     * Gets the URL of the grid-sized rendition of the image.
+     *
+     * @return Thumbnail URL, or null if the post has no renditions.
+     */
+    public String getThumbnailUrl() {
+        return thumbnailUrl;
+    }
+
+    /**
+     * Sets the URL of the grid-sized rendition of the image.
+     *
+     * @param thumbnailUrl Thumbnail URL.
+     */
+    public void setThumbnailUrl(String thumbnailUrl) {
+        this.thumbnailUrl = thumbnailUrl;
+    }
+
+    /**
+     * Gets the URL of the feed-sized rendition of the image.
+     *
+     * @return Feed image URL, or null if the post has no renditions.
+     */
+    public String getFeedImageUrl() {
+        return feedImageUrl;
+    }
+
+    /**
+     * Sets the URL of the feed-sized rendition of the image.
+     *
+     * @param feedImageUrl Feed image URL.
+     */
+    public void setFeedImageUrl(String feedImageUrl) {
+        this.feedImageUrl = feedImageUrl;
+    }
+}
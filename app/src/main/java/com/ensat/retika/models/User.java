@@ -11,7 +11,8 @@ public class User {
     private String username;
     private String email;
     private String profilePictureUrl;
-    private long subscribers; // Number of followers
+    private long subscribers; // Number of followers, not counting the shards
+    private int subscriberShards; // Number of shards of the subscribers counter, 0 if not sharded
     private List<String> followers; // List of user IDs who follow this user
     private List<String> following; // List of user IDs this user follows
 
@@ -162,4 +163,23 @@ public class User {
     public void setFollowing(List<String> following) {
         this.following = following;
     }
+
+    /**
+     * Gets the number of shards of the subscribers counter.
+     * Once sharded, the subscriber count is the subscribers field plus the sum of the shards.
+     *
+     * @return Number of shards, or 0 if the counter is not sharded.
+     */
+    public int getSubscriberShards() {
+        return subscriberShards;
+    }
+
+    /**
+     * Sets the number of shards of the subscribers counter.
+     *
+     * @param subscriberShards Number of shards, or 0 if the counter is not sharded.
+     */
+    public void setSubscriberShards(int subscriberShards) {
+        this.subscriberShards = subscriberShards;
+    }
 }
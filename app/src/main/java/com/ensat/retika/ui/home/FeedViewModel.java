@@ -0,0 +1,93 @@
+/**
+ * ViewModel that keeps the home feed alive across navigation.
+ * It is scoped to the activity, so the feed outlives the HomeFragment view.
+ * It also follows the posts the user is publishing, so they show up in the feed right away.
+ */
+package com.ensat.retika.ui.home;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.Observer;
+import androidx.lifecycle.ViewModel;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+
+import com.ensat.retika.data.FeedRepository;
+import com.ensat.retika.data.PostPublisher;
+import com.ensat.retika.data.PostUploadWorker;
+import com.ensat.retika.models.Post;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FeedViewModel extends ViewModel {
+
+    private final FeedRepository feedRepository = new FeedRepository(FirebaseFirestore.getInstance());
+    private final Map<LiveData<List<WorkInfo>>, Observer<List<WorkInfo>>> publishing = new HashMap<>(); // Work followed per post
+
+    /**
+     * Returns the repository holding the feed.
+     *
+     * @return FeedRepository of this ViewModel.
+     */
+    public FeedRepository getFeedRepository() {
+        return feedRepository;
+    }
+
+    /**
+     * Shows a post the user just published at the top of the feed, from its local image,
+     * and follows its upload: the post is switched to its remote image once uploaded,
+     * or removed if publishing it fails.
+     *
+     * @param context Any context, used to reach WorkManager.
+     * @param post    Post returned by {@link PostPublisher#publish}.
+     */
+    public void addPublishingPost(@NonNull Context context, @NonNull Post post) {
+        String postId = post.getPostId();
+        feedRepository.insertLocalPost(post);
+
+        LiveData<List<WorkInfo>> work = WorkManager.getInstance(context.getApplicationContext())
+                .getWorkInfosForUniqueWorkLiveData(PostPublisher.workNameOf(postId));
+        Observer<List<WorkInfo>> observer = new Observer<List<WorkInfo>>() {
+            private boolean uploaded = false;
+
+            @Override
+            public void onChanged(List<WorkInfo> workInfos) {
+                boolean finished = !workInfos.isEmpty();
+                for (WorkInfo info : workInfos) {
+                    String imageUrl = info.getOutputData().getString(PostUploadWorker.KEY_IMAGE_URL);
+                    if (!uploaded && info.getState() == WorkInfo.State.SUCCEEDED && imageUrl != null) {
+                        uploaded = true;
+                        feedRepository.onLocalPostUploaded(postId, imageUrl,
+                                info.getOutputData().getString(PostUploadWorker.KEY_THUMBNAIL_URL),
+                                info.getOutputData().getString(PostUploadWorker.KEY_FEED_IMAGE_URL));
+                    }
+                    if (info.getState() == WorkInfo.State.FAILED || info.getState() == WorkInfo.State.CANCELLED) {
+                        feedRepository.removeLocalPost(postId);
+                    }
+                    finished &= info.getState().isFinished();
+                }
+                if (finished) {
+                    work.removeObserver(this);
+                    publishing.remove(work);
+                }
+            }
+        };
+        publishing.put(work, observer);
+        work.observeForever(observer);
+    }
+
+    @Override
+    protected void onCleared() {
+        super.onCleared();
+        feedRepository.setListener(null);
+        for (Map.Entry<LiveData<List<WorkInfo>>, Observer<List<WorkInfo>>> entry : publishing.entrySet()) {
+            entry.getKey().removeObserver(entry.getValue());
+        }
+        publishing.clear();
+    }
+}
@@ -1,6 +1,8 @@
 /**
  * Fragment class for the Home screen.
  * Displays a list of posts and supports pagination.
+ * The feed itself is kept in an activity-scoped {@link FeedViewModel}, so coming back
+ * to this screen shows it instantly at the same scroll position.
  */
 package com.ensat.retika.ui.home;
 
@@ -8,46 +10,49 @@ import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.ensat.retika.R;
 import com.ensat.retika.adapters.PostAdapter;
+import com.ensat.retika.data.FeedRepository;
+import com.ensat.retika.data.FollowGraph;
+import com.ensat.retika.data.LikeGraph;
 import com.ensat.retika.models.Post;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
 
-import java.util.ArrayList;
 import java.util.List;
 
-public class HomeFragment extends Fragment {
+public class HomeFragment extends Fragment implements FeedRepository.Listener {
+
+    private static final int PREFETCH_DISTANCE = 3; // Items before the end at which the next page starts loading
 
     private RecyclerView recyclerViewPosts; // RecyclerView for displaying posts
-    private FirebaseFirestore db;
+    private Button buttonNewPosts; // "N new posts" pill
+    private LinearLayoutManager layoutManager;
     private FirebaseAuth mAuth;
-    private List<Post> postList;
+    private FeedRepository feedRepository; // Posts, cursor and scroll position, kept across views
     private PostAdapter postAdapter;
-    private DocumentSnapshot lastVisiblePost; // Tracks the last visible post for pagination
-    private boolean isLoading = false; // Indicates whether posts are currently loading
+    private PaginationController paginationController; // Decides when and how much to load
     private String currentUserId; // ID of the current user
 
     /**
      * Called when the fragment is created.
-     * Initializes Firebase Firestore and Auth instances.
+     * Initializes Firebase Auth and looks up the feed kept by the activity.
      *
      * @param savedInstanceState Saved state of the fragment.
      */
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        db = FirebaseFirestore.getInstance();
         mAuth = FirebaseAuth.getInstance();
+        feedRepository = new ViewModelProvider(requireActivity()).get(FeedViewModel.class).getFeedRepository();
     }
 
     /**
@@ -72,76 +77,115 @@ public class HomeFragment extends Fragment {
 
         // Initialize RecyclerView
         recyclerViewPosts = root.findViewById(R.id.recycler_view_posts);
-        recyclerViewPosts.setLayoutManager(new LinearLayoutManager(requireContext()));
+        layoutManager = new LinearLayoutManager(requireContext());
+        recyclerViewPosts.setLayoutManager(layoutManager);
+
+        // Tapping the pill splices the buffered new posts in at the top
+        buttonNewPosts = root.findViewById(R.id.button_new_posts);
+        buttonNewPosts.setOnClickListener(v -> {
+            feedRepository.showNewPosts(this::reloadPosts);
+            recyclerViewPosts.smoothScrollToPosition(0);
+        });
 
-        // Initialize post list and adapter
-        postList = new ArrayList<>();
-        postAdapter = new PostAdapter(postList, R.layout.item_post, currentUserId, requireContext());
+        // Initialize adapter with the posts already in memory, then restore the scroll position
+        postAdapter = new PostAdapter(R.layout.item_post, currentUserId, requireContext());
         recyclerViewPosts.setAdapter(postAdapter);
-
-        // Load posts
-        loadPosts();
-
-        // Pagination: Load more posts when scrolled to the bottom
-        recyclerViewPosts.addOnScrollListener(new RecyclerView.OnScrollListener() {
-            @Override
-            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
-                super.onScrolled(recyclerView, dx, dy);
-
-                if (!recyclerView.canScrollVertically(1) && !isLoading) { // Check if at bottom
-                    loadPosts();
-                }
+        postAdapter.submitList(feedRepository.getPosts(), () -> {
+            if (feedRepository.getScrollState() != null) {
+                layoutManager.onRestoreInstanceState(feedRepository.getScrollState());
             }
         });
+        feedRepository.setListener(this);
+
+        // Load the accounts the user follows once, so follow buttons bind from memory
+        FollowGraph.getInstance().load(currentUserId);
+        LikeGraph.getInstance().load(currentUserId);
+
+        // Pagination: start loading the next page a few items before the end of the list
+        paginationController = new PaginationController(layoutManager, PREFETCH_DISTANCE, feedRepository::loadNextPage);
+        recyclerViewPosts.addOnScrollListener(paginationController);
 
         return root;
     }
 
     /**
-     * Loads posts from Firestore and updates the RecyclerView.
-     * Handles pagination using the last visible post.
+     * Called when the fragment becomes visible.
+     * Loads the first page of an empty feed; otherwise only listens for posts newer than the head.
      */
-    private void loadPosts() {
-        if (lastVisiblePost == null) {
-            postList.clear(); // Clear the list only when loading fresh posts
-            postAdapter.notifyDataSetChanged(); // Notify adapter of changes
-        }
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (postAdapter == null) return; // No user is logged in
 
-        isLoading = true;
+        if (feedRepository.isEmpty()) {
+            paginationController.requestNextPage();
+        } else {
+            feedRepository.revalidateUnconfirmedPages(); // Only pages the server never confirmed
+            feedRepository.startDeltaSync();
+        }
+    }
 
-        Query query = db.collection("posts").orderBy("timestamp", Query.Direction.DESCENDING).limit(5);
-        if (lastVisiblePost != null) {
-            query = query.startAfter(lastVisiblePost);
+    /**
+     * Stops listening for new posts while the feed is not visible.
+     */
+    @Override
+    public void onPause() {
+        super.onPause();
+        feedRepository.stopDeltaSync();
+        if (buttonNewPosts != null) {
+            buttonNewPosts.setVisibility(View.GONE);
         }
+    }
 
-        query.get().addOnSuccessListener(queryDocumentSnapshots -> {
-            if (!queryDocumentSnapshots.isEmpty()) {
-                lastVisiblePost = queryDocumentSnapshots.getDocuments().get(queryDocumentSnapshots.size() - 1);
-
-                for (DocumentSnapshot doc : queryDocumentSnapshots) {
-                    Post post = doc.toObject(Post.class);
-                    if (post != null) {
-                        post.setPostId(doc.getId()); // Set the postId using the document ID
-                        postList.add(post);
-                    }
-                }
-                postAdapter.notifyDataSetChanged();
-            }
-            isLoading = false;
-        }).addOnFailureListener(e -> {
-            Toast.makeText(requireContext(), "Failed to load posts: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-            isLoading = false;
-        });
+    /**
+     * Saves the scroll position and detaches from the feed before the view goes away.
+     */
+    @Override
+    public void onDestroyView() {
+        if (layoutManager != null) {
+            feedRepository.saveScrollState(layoutManager.onSaveInstanceState());
+        }
+        feedRepository.setListener(null);
+        super.onDestroyView();
     }
 
     /**
-     * Called when the fragment becomes visible.
-     * Resets pagination and reloads posts.
+     * Loads the feed again from the newest post, after {@link FeedRepository#clear()}.
      */
+    private void reloadPosts() {
+        paginationController.reset();
+        paginationController.requestNextPage();
+    }
+
     @Override
-    public void onResume() {
-        super.onResume();
-        lastVisiblePost = null;
-        loadPosts();
+    public void onPostsChanged(List<Post> posts) {
+        // Diffed off the main thread; once laid out, keep loading while the list does not fill the screen
+        postAdapter.submitList(posts, () -> recyclerViewPosts.post(() -> {
+            if (getView() != null) paginationController.loadIfEndVisible(); // Not after the view is gone
+        }));
+    }
+
+    @Override
+    public void onPageLoaded(int itemCount) {
+        paginationController.onPageLoaded(itemCount);
+        if (isResumed()) {
+            feedRepository.startDeltaSync(); // No-op once listening
+        }
+    }
+
+    @Override
+    public void onPageFailed(Exception e) {
+        Toast.makeText(requireContext(), "Failed to load posts: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        paginationController.onPageFailed();
+    }
+
+    @Override
+    public void onNewPostsAvailable(int count) {
+        if (count == 0) {
+            buttonNewPosts.setVisibility(View.GONE);
+        } else {
+            buttonNewPosts.setText(count == 1 ? "1 new post" : count + " new posts");
+            buttonNewPosts.setVisibility(View.VISIBLE);
+        }
     }
 }
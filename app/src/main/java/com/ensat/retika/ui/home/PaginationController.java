@@ -0,0 +1,172 @@
+/**
+ * Scroll listener that drives feed pagination.
+ * Starts loading the next page a configurable number of items before the end of the list,
+ * sizes pages from the scroll speed and recent fetch latency, and keeps at most one fetch in flight.
+ */
+package com.ensat.retika.ui.home;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+public class PaginationController extends RecyclerView.OnScrollListener {
+
+    /**
+     * Callback that performs the actual page load.
+     * The loader must report back through {@link #onPageLoaded(int)} or {@link #onPageFailed()}.
+     */
+    public interface PageLoader {
+        /**
+         * Loads the next page.
+         *
+         * @param pageSize Number of items to request.
+         */
+        void loadPage(int pageSize);
+    }
+
+    private static final int MIN_PAGE_SIZE = 5;
+    private static final int MAX_PAGE_SIZE = 25;
+    private static final double SMOOTHING = 0.3; // Weight of the newest sample in moving averages
+    private static final double SAFETY_FACTOR = 2.0; // Load twice what the user scrolls through during one fetch
+
+    private final LinearLayoutManager layoutManager;
+    private final int prefetchDistance;
+    private final PageLoader pageLoader;
+
+    private boolean loading = false; // Indicates whether a page is currently loading
+    private boolean endReached = false; // Set once a page comes back smaller than requested
+    private int requestedPageSize;
+    private long fetchStartedAt;
+    private double averageFetchMillis = 600; // Moving average of recent fetch latencies
+    private double itemsPerSecond = 0; // Moving average of the scroll speed, in items
+    private int lastFirstVisible = RecyclerView.NO_POSITION;
+    private long lastScrollSampleAt;
+
+    /**
+     * Constructor for the PaginationController.
+     *
+     * @param layoutManager    Layout manager of the paginated RecyclerView.
+     * @param prefetchDistance Number of items before the end at which the next page starts loading.
+     * @param pageLoader       Callback that loads a page.
+     */
+    public PaginationController(@NonNull LinearLayoutManager layoutManager, int prefetchDistance, @NonNull PageLoader pageLoader) {
+        this.layoutManager = layoutManager;
+        this.prefetchDistance = prefetchDistance;
+        this.pageLoader = pageLoader;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        super.onScrolled(recyclerView, dx, dy);
+        sampleScrollSpeed();
+
+        if (dy < 0) return; // Scrolling up never brings the end closer; dy == 0 is a layout pass
+
+        loadIfEndVisible();
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        super.onScrollStateChanged(recyclerView, newState);
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            // A resting list should not keep requesting fling-sized pages
+            itemsPerSecond *= 1 - SMOOTHING;
+            lastFirstVisible = RecyclerView.NO_POSITION;
+        }
+    }
+
+    /**
+     * Starts loading the next page unless a load is already running or the end was reached.
+     */
+    public void requestNextPage() {
+        if (loading || endReached) return;
+
+        loading = true;
+        requestedPageSize = nextPageSize();
+        fetchStartedAt = SystemClock.elapsedRealtime();
+        pageLoader.loadPage(requestedPageSize);
+    }
+
+    /**
+     * Starts loading the next page if the end of the list is within the prefetch distance
+     * of the last visible item. Called after each page is laid out as well as on scroll:
+     * a short page that does not fill the screen produces no scroll event to load the next one.
+     */
+    public void loadIfEndVisible() {
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible != RecyclerView.NO_POSITION
+                && lastVisible >= layoutManager.getItemCount() - 1 - prefetchDistance) {
+            requestNextPage();
+        }
+    }
+
+    /**
+     * Reports that a page finished loading.
+     *
+     * @param itemCount Number of items the page contained.
+     */
+    public void onPageLoaded(int itemCount) {
+        long elapsed = SystemClock.elapsedRealtime() - fetchStartedAt;
+        averageFetchMillis = SMOOTHING * elapsed + (1 - SMOOTHING) * averageFetchMillis;
+        endReached = itemCount < requestedPageSize;
+        loading = false;
+    }
+
+    /**
+     * Reports that a page failed to load. The next scroll past the threshold retries.
+     */
+    public void onPageFailed() {
+        loading = false;
+    }
+
+    /**
+     * Forgets the pagination state, e.g. before reloading the list from the top.
+     * Latency and speed estimates are kept, since they describe the network and the user.
+     */
+    public void reset() {
+        loading = false;
+        endReached = false;
+        lastFirstVisible = RecyclerView.NO_POSITION;
+    }
+
+    /**
+     * Checks whether a page is currently loading.
+     *
+     * @return True if a load is in flight.
+     */
+    public boolean isLoading() {
+        return loading;
+    }
+
+    /**
+     * Computes the size of the next page: enough items to cover what the user
+     * is expected to scroll through while the following fetch is running.
+     *
+     * @return Page size, clamped to the allowed range.
+     */
+    private int nextPageSize() {
+        double itemsDuringFetch = itemsPerSecond * averageFetchMillis / 1000.0;
+        int size = (int) Math.ceil(itemsDuringFetch * SAFETY_FACTOR) + prefetchDistance;
+        return Math.max(MIN_PAGE_SIZE, Math.min(MAX_PAGE_SIZE, size));
+    }
+
+    /**
+     * Updates the scroll speed estimate from the change of the first visible position.
+     */
+    private void sampleScrollSpeed() {
+        int firstVisible = layoutManager.findFirstVisibleItemPosition();
+        long now = SystemClock.elapsedRealtime();
+
+        if (lastFirstVisible != RecyclerView.NO_POSITION && firstVisible != RecyclerView.NO_POSITION) {
+            long elapsed = now - lastScrollSampleAt;
+            if (elapsed < 100) return; // Too short to give a meaningful sample
+            double sample = Math.abs(firstVisible - lastFirstVisible) * 1000.0 / elapsed;
+            itemsPerSecond = SMOOTHING * sample + (1 - SMOOTHING) * itemsPerSecond;
+        }
+
+        lastFirstVisible = firstVisible;
+        lastScrollSampleAt = now;
+    }
+}
@@ -4,14 +4,20 @@
  */
 package com.ensat.retika.ui.other;
 
+import android.annotation.SuppressLint;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.graphics.RectF;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
 import android.text.TextUtils;
+import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
@@ -22,26 +28,22 @@ import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.ViewModelProvider;
 
 import com.ensat.retika.R;
+import com.ensat.retika.data.PostPublisher;
+import com.ensat.retika.editor.BitmapLoader;
+import com.ensat.retika.editor.EditPipeline;
+import com.ensat.retika.editor.FilterRenderScheduler;
+import com.ensat.retika.models.Post;
+import com.ensat.retika.ui.home.FeedViewModel;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.storage.FirebaseStorage;
-import com.google.firebase.storage.StorageReference;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.util.HashMap;
-
-import jp.co.cyberagent.android.gpuimage.GPUImage;
-import jp.co.cyberagent.android.gpuimage.filter.GPUImageFilter;
-import jp.co.cyberagent.android.gpuimage.filter.GPUImageSepiaToneFilter;
-import jp.co.cyberagent.android.gpuimage.filter.GPUImageGrayscaleFilter;
-import jp.co.cyberagent.android.gpuimage.filter.GPUImageBrightnessFilter;
 
 public class PostEditorFragment extends Fragment {
 
@@ -51,14 +53,22 @@ public class PostEditorFragment extends Fragment {
     private FloatingActionButton fabAddImage;
     private MaterialButton buttonCrop;
     private MaterialButton buttonFilter;
+    private MaterialButton buttonRotate;
+    private MaterialButton buttonUndo;
+    private MaterialButton buttonRedo;
+
+    private static final String TAG = "PostEditorFragment";
+    private static final float MIN_CROP = 0.05f; // Smallest freeform crop, as a fraction of each side
 
-    private Uri imageUri;
+    private Uri imageUri; // Photo being picked or captured, until it is decoded
+    private Uri sourceUri; // Photo the preview was decoded from, decoded again at full resolution on export
     private FirebaseFirestore db;
-    private FirebaseStorage storage;
     private FirebaseAuth mAuth;
-    private GPUImage gpuImage;
-    private Bitmap originalBitmap;
-    private Bitmap croppedBitmap;
+    private FilterRenderScheduler filterRenderer; // Renders the edits off the main thread
+    private BitmapLoader bitmapLoader; // Decodes picked photos off the main thread
+    private int loadGeneration = 0; // Incremented on every pick so a slower earlier decode is dropped
+    private Bitmap originalBitmap; // Preview-sized decode of the picked photo, never modified
+    private final EditPipeline editPipeline = new EditPipeline(); // Crops, rotations and filters applied so far
 
     private final ActivityResultLauncher<Intent> galleryLauncher = registerForActivityResult(
             new ActivityResultContracts.StartActivityForResult(),
@@ -86,7 +96,7 @@ public class PostEditorFragment extends Fragment {
 
     /**
      * Called when the fragment is created.
-     * Initializes Firebase and GPUImage instances.
+     * Initializes Firebase, the image loader and the filter renderer.
      *
      * @param savedInstanceState Saved state of the fragment.
      */
@@ -94,9 +104,9 @@ public class PostEditorFragment extends Fragment {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         db = FirebaseFirestore.getInstance();
-        storage = FirebaseStorage.getInstance();
         mAuth = FirebaseAuth.getInstance();
-        gpuImage = new GPUImage(requireContext());
+        bitmapLoader = new BitmapLoader(requireContext());
+        filterRenderer = new FilterRenderScheduler(requireContext(), getResources().getDisplayMetrics().widthPixels);
     }
 
     /**
@@ -118,11 +128,29 @@ public class PostEditorFragment extends Fragment {
         fabAddImage = root.findViewById(R.id.fab_add_image);
         buttonCrop = root.findViewById(R.id.button_crop);
         buttonFilter = root.findViewById(R.id.button_filter);
+        buttonRotate = root.findViewById(R.id.button_rotate);
+        buttonUndo = root.findViewById(R.id.button_undo);
+        buttonRedo = root.findViewById(R.id.button_redo);
 
         fabAddImage.setOnClickListener(v -> showImagePickerDialog());
         buttonPost.setOnClickListener(v -> createPost());
         buttonCrop.setOnClickListener(v -> cropImage());
         buttonFilter.setOnClickListener(v -> showFilterDialog());
+        buttonRotate.setOnClickListener(v -> rotateImage());
+        buttonUndo.setOnClickListener(v -> {
+            editPipeline.undo();
+            renderPreview();
+        });
+        buttonRedo.setOnClickListener(v -> {
+            editPipeline.redo();
+            renderPreview();
+        });
+
+        if (originalBitmap != null) {
+            renderPreview(); // View recreated, e.g. coming back from the back stack
+        } else {
+            updateHistoryButtons();
+        }
 
         return root;
     }
@@ -165,21 +193,34 @@ public class PostEditorFragment extends Fragment {
 
     /**
      * Loads the selected image into the preview.
+     * The photo is decoded in the background at about the size of the preview,
+     * so large photos neither block the UI nor exhaust memory.
      *
      * @param imageUri URI of the selected image.
      */
     private void loadImageIntoPreview(Uri imageUri) {
-        try {
-            originalBitmap = BitmapFactory.decodeStream(requireContext().getContentResolver().openInputStream(imageUri));
-            imagePreview.setImageBitmap(originalBitmap);
-        } catch (IOException e) {
-            e.printStackTrace();
-            Toast.makeText(requireContext(), "Failed to load image", Toast.LENGTH_SHORT).show();
-        }
+        int generation = ++loadGeneration;
+        int reqWidth = imagePreview.getWidth() > 0 ? imagePreview.getWidth() : getResources().getDisplayMetrics().widthPixels;
+        int reqHeight = imagePreview.getHeight() > 0 ? imagePreview.getHeight() : reqWidth;
+
+        bitmapLoader.loadPreview(imageUri, reqWidth, reqHeight)
+                .addOnSuccessListener(bitmap -> {
+                    if (generation != loadGeneration || !isAdded()) return; // Another photo was picked meanwhile
+                    originalBitmap = bitmap;
+                    sourceUri = imageUri; // Only a decoded photo replaces the one being edited
+                    editPipeline.clear();
+                    renderPreview();
+                })
+                .addOnFailureListener(e -> {
+                    if (generation != loadGeneration || !isAdded()) return;
+                    e.printStackTrace();
+                    Toast.makeText(requireContext(), "Failed to load image", Toast.LENGTH_SHORT).show();
+                });
     }
 
     /**
-     * Crops the selected image to a square format.
+     * Displays a dialog to crop the image as currently shown, to a fixed aspect ratio
+     * or to an area dragged over the preview.
      */
     private void cropImage() {
         if (originalBitmap == null) {
@@ -187,15 +228,107 @@ public class PostEditorFragment extends Fragment {
             return;
         }
 
-        int width = originalBitmap.getWidth();
-        int height = originalBitmap.getHeight();
-        int size = Math.min(width, height);
+        String[] formats = {"Square (1:1)", "Portrait (4:5)", "Landscape (16:9)", "Freeform"};
+        float[] aspectRatios = {1f, 4f / 5f, 16f / 9f};
+        android.app.AlertDialog.Builder builder = new android.app.AlertDialog.Builder(requireContext());
+        builder.setTitle("Crop");
+        builder.setItems(formats, (dialog, which) -> {
+            if (which == aspectRatios.length) {
+                startFreeformCrop();
+                return;
+            }
+            int[] size = editPipeline.outputSize(originalBitmap.getWidth(), originalBitmap.getHeight());
+            editPipeline.push(EditPipeline.CropOp.centered(size[0], size[1], aspectRatios[which]));
+            renderPreview();
+        });
+        builder.show();
+    }
 
-        int x = (width - size) / 2;
-        int y = (height - size) / 2;
+    /**
+     * Lets the user drag a rectangle over the preview; the area dragged is outlined while
+     * dragging and cropped once the finger is lifted.
+     */
+    @SuppressLint("ClickableViewAccessibility")
+    private void startFreeformCrop() {
+        Toast.makeText(requireContext(), "Drag over the photo to select the area to keep", Toast.LENGTH_SHORT).show();
+        float[] start = new float[2];
+        GradientDrawable selection = new GradientDrawable();
+        selection.setColor(0x33FFFFFF);
+        selection.setStroke(Math.round(2 * getResources().getDisplayMetrics().density), Color.WHITE);
+        imagePreview.setOnTouchListener((v, event) -> {
+            switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_DOWN:
+                    start[0] = event.getX();
+                    start[1] = event.getY();
+                    selection.setBounds(Math.round(start[0]), Math.round(start[1]), Math.round(start[0]), Math.round(start[1]));
+                    imagePreview.getOverlay().add(selection);
+                    return true;
+                case MotionEvent.ACTION_MOVE:
+                    selection.setBounds(
+                            Math.round(Math.min(start[0], event.getX())), Math.round(Math.min(start[1], event.getY())),
+                            Math.round(Math.max(start[0], event.getX())), Math.round(Math.max(start[1], event.getY())));
+                    imagePreview.invalidate();
+                    return true;
+                case MotionEvent.ACTION_UP:
+                    imagePreview.setOnTouchListener(null);
+                    imagePreview.getOverlay().remove(selection);
+                    RectF crop = toImageRect(start[0], start[1], event.getX(), event.getY());
+                    if (crop != null) {
+                        editPipeline.push(new EditPipeline.CropOp(crop));
+                        renderPreview();
+                    }
+                    return true;
+                case MotionEvent.ACTION_CANCEL:
+                    imagePreview.setOnTouchListener(null);
+                    imagePreview.getOverlay().remove(selection);
+                    return true;
+                default:
+                    return true;
+            }
+        });
+    }
 
-        croppedBitmap = Bitmap.createBitmap(originalBitmap, x, y, size, size);
-        imagePreview.setImageBitmap(croppedBitmap);
+    /**
+     * Maps a rectangle dragged over the preview to the image it shows.
+     * The preview center-crops the image, so the drawable is scaled to cover the view.
+     *
+     * @param x1 X of one corner, in view pixels.
+     * @param y1 Y of one corner, in view pixels.
+     * @param x2 X of the opposite corner, in view pixels.
+     * @param y2 Y of the opposite corner, in view pixels.
+     * @return The rectangle in 0..1 coordinates of the displayed image, or null if too small.
+     */
+    @Nullable
+    private RectF toImageRect(float x1, float y1, float x2, float y2) {
+        Drawable drawable = imagePreview.getDrawable();
+        if (drawable == null || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) return null;
+
+        float imageWidth = drawable.getIntrinsicWidth();
+        float imageHeight = drawable.getIntrinsicHeight();
+        float scale = Math.max(imagePreview.getWidth() / imageWidth, imagePreview.getHeight() / imageHeight);
+        float offsetX = (imagePreview.getWidth() - imageWidth * scale) / 2;
+        float offsetY = (imagePreview.getHeight() - imageHeight * scale) / 2;
+
+        RectF rect = new RectF(
+                (Math.min(x1, x2) - offsetX) / (imageWidth * scale),
+                (Math.min(y1, y2) - offsetY) / (imageHeight * scale),
+                (Math.max(x1, x2) - offsetX) / (imageWidth * scale),
+                (Math.max(y1, y2) - offsetY) / (imageHeight * scale));
+        if (!rect.intersect(0, 0, 1, 1) || rect.width() < MIN_CROP || rect.height() < MIN_CROP) return null;
+        return rect;
+    }
+
+    /**
+     * Rotates the image a quarter turn clockwise.
+     */
+    private void rotateImage() {
+        if (originalBitmap == null) {
+            Toast.makeText(requireContext(), "Please select an image first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        editPipeline.push(new EditPipeline.RotateOp(90));
+        renderPreview();
     }
 
     /**
@@ -213,29 +346,44 @@ public class PostEditorFragment extends Fragment {
         builder.setItems(filters, (dialog, which) -> {
             switch (which) {
                 case 0:
-                    applyFilter(new GPUImageSepiaToneFilter());
+                    editPipeline.push(new EditPipeline.FilterOp(EditPipeline.FilterOp.SEPIA, 1f));
                     break;
                 case 1:
-                    applyFilter(new GPUImageGrayscaleFilter());
+                    editPipeline.push(new EditPipeline.FilterOp(EditPipeline.FilterOp.GRAYSCALE, 0f));
                     break;
                 case 2:
-                    applyFilter(new GPUImageBrightnessFilter(0.5f));
+                    editPipeline.push(new EditPipeline.FilterOp(EditPipeline.FilterOp.BRIGHTNESS, 0.5f));
                     break;
             }
+            renderPreview();
         });
         builder.show();
     }
 
     /**
-     * Applies the selected filter to the image.
-     *
-     * @param filter GPUImageFilter to apply.
+     * Renders the edits over the picked photo into the preview.
+     * The render runs in the background at preview resolution; a render still running
+     * when another edit is made is cancelled and never shown.
+     */
+    private void renderPreview() {
+        updateHistoryButtons();
+        if (originalBitmap == null) return;
+
+        filterRenderer.renderPreview(originalBitmap, editPipeline)
+                .addOnSuccessListener(previewBitmap -> {
+                    if (isAdded()) imagePreview.setImageBitmap(previewBitmap);
+                })
+                .addOnFailureListener(e -> {
+                    if (isAdded()) Toast.makeText(requireContext(), "Failed to apply filter", Toast.LENGTH_SHORT).show();
+                });
+    }
+
+    /**
+     * Enables the undo and redo buttons according to the edit history.
      */
-    private void applyFilter(GPUImageFilter filter) {
-        gpuImage.setImage(croppedBitmap != null ? croppedBitmap : originalBitmap);
-        gpuImage.setFilter(filter);
-        Bitmap filteredBitmap = gpuImage.getBitmapWithFilterApplied();
-        imagePreview.setImageBitmap(filteredBitmap);
+    private void updateHistoryButtons() {
+        buttonUndo.setEnabled(editPipeline.canUndo());
+        buttonRedo.setEnabled(editPipeline.canRedo());
     }
 
     /**
@@ -258,57 +406,52 @@ public class PostEditorFragment extends Fragment {
     }
 
     /**
-     * Saves the final image (cropped and filtered) locally.
+     * Renders the final image (cropped and filtered) and hands it to the publisher.
+     * Only the cropped region of the photo is decoded again at full resolution for this,
+     * in the background, and the edits made on the preview are rendered over it once.
+     * The rendered bitmap is encoded once, by the publisher, into the file it uploads.
      */
     private void saveFinalImage() {
-        Bitmap finalBitmap = gpuImage.getBitmapWithFilterApplied();
-        if (finalBitmap == null) {
-            Toast.makeText(requireContext(), "Failed to apply filter", Toast.LENGTH_SHORT).show();
-            return;
-        }
-
-        File file = new File(requireContext().getCacheDir(), "final_image.jpg");
-        try (FileOutputStream out = new FileOutputStream(file)) {
-            finalBitmap.compress(Bitmap.CompressFormat.JPEG, 100, out);
-            Uri finalImageUri = Uri.fromFile(file);
-            uploadImageToFirebase(finalImageUri, inputCaption.getText().toString().trim());
-        } catch (IOException e) {
-            e.printStackTrace();
-            Toast.makeText(requireContext(), "Failed to save final image", Toast.LENGTH_SHORT).show();
-        }
+        PostPublisher publisher = new PostPublisher(requireContext(), db);
+        String userId = mAuth.getCurrentUser().getUid();
+        String caption = inputCaption.getText().toString().trim();
+        EditPipeline edits = editPipeline.snapshot();
+
+        buttonPost.setEnabled(false);
+        bitmapLoader.loadRegionForExport(sourceUri, edits.sourceRegion())
+                // The only full-resolution render: every edit in one geometry pass and one filter pass
+                .continueWithTask(task -> filterRenderer.renderExport(task.getResult(), true, edits))
+                .continueWith(BitmapLoader.executor(), task -> {
+                    Bitmap bitmap = task.getResult();
+                    try {
+                        return publisher.publish(userId, bitmap, caption);
+                    } finally {
+                        bitmap.recycle();
+                    }
+                })
+                .addOnCompleteListener(task -> {
+                    if (!isAdded()) return;
+                    buttonPost.setEnabled(true);
+                    if (!task.isSuccessful()) {
+                        Log.w(TAG, "Failed to save final image", task.getException());
+                        Toast.makeText(requireContext(), "Failed to save final image", Toast.LENGTH_SHORT).show();
+                        return;
+                    }
+                    showPublishingPost(task.getResult());
+                });
     }
 
     /**
-     * Uploads the image to Firebase Storage and saves the post to Firestore.
+     * Shows a post handed to the background publisher, which uploads the image and saves the post
+     * to Firestore as soon as the network allows, showing its progress in a notification.
+     * The user is not kept waiting for the upload and may leave the screen right away;
+     * the post shows up at the top of the feed at once, from the local image.
      *
-     * @param imageUri URI of the image to upload.
-     * @param caption  Caption for the post.
+     * @param post Post being published.
      */
-    private void uploadImageToFirebase(Uri imageUri, String caption) {
-        String userId = mAuth.getCurrentUser().getUid();
-        String fileName = "posts/" + userId + "/" + System.currentTimeMillis() + ".jpg";
-        StorageReference imageRef = storage.getReference().child(fileName);
-
-        imageRef.putFile(imageUri)
-                .addOnSuccessListener(taskSnapshot ->
-                        imageRef.getDownloadUrl().addOnSuccessListener(uri -> {
-                            HashMap<String, Object> post = new HashMap<>();
-                            post.put("userId", userId);
-                            post.put("imageUrl", uri.toString());
-                            post.put("caption", caption);
-                            post.put("timestamp", System.currentTimeMillis());
-
-                            db.collection("posts").add(post)
-                                    .addOnSuccessListener(documentReference ->
-                                            Toast.makeText(requireContext(), "Post created successfully", Toast.LENGTH_SHORT).show()
-                                    )
-                                    .addOnFailureListener(e ->
-                                            Toast.makeText(requireContext(), "Failed to create post", Toast.LENGTH_SHORT).show()
-                                    );
-                        })
-                )
-                .addOnFailureListener(e ->
-                        Toast.makeText(requireContext(), "Failed to upload image", Toast.LENGTH_SHORT).show()
-                );
+    private void showPublishingPost(Post post) {
+        new ViewModelProvider(requireActivity()).get(FeedViewModel.class)
+                .addPublishingPost(requireContext(), post);
+        Toast.makeText(requireContext(), "Uploading post", Toast.LENGTH_SHORT).show();
     }
 }
@@ -24,11 +24,19 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.bumptech.glide.Glide;
 import com.ensat.retika.ChangePasswordActivity;
-import com.ensat.retika.LoginActivity;
 import com.ensat.retika.R;
+import com.ensat.retika.SessionTeardown;
 import com.ensat.retika.adapters.PostAdapter;
+import com.ensat.retika.data.CounterPromoter;
+import com.ensat.retika.data.FeedProjection;
+import com.ensat.retika.data.ShardedCounter;
+import com.ensat.retika.data.UserProfileCache;
 import com.ensat.retika.models.Post;
+import com.ensat.retika.models.User;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 
@@ -96,7 +104,7 @@ public class ProfileFragment extends Fragment {
         // Configure RecyclerView
         recyclerViewPosts.setLayoutManager(new GridLayoutManager(requireContext(), 3)); // 3 columns
         postList = new ArrayList<>();
-        postAdapter = new PostAdapter(postList, R.layout.item_post_grid, currentUserId, requireContext());
+        postAdapter = new PostAdapter(R.layout.item_post_grid, currentUserId, requireContext());
         recyclerViewPosts.setAdapter(postAdapter);
 
         // Load user profile and posts
@@ -124,15 +132,35 @@ public class ProfileFragment extends Fragment {
      */
     private void loadUserProfile() {
         String userId = mAuth.getCurrentUser().getUid();
+
+        // Show the cached profile right away while the fresh one loads
+        User cachedUser = UserProfileCache.getInstance().peek(userId);
+        if (cachedUser != null) {
+            textUsername.setText(cachedUser.getUsername());
+        }
+
         db.collection("users").document(userId).get()
                 .addOnSuccessListener(documentSnapshot -> {
                     if (documentSnapshot.exists()) {
+                        User user = documentSnapshot.toObject(User.class);
+                        if (user != null) {
+                            user.setUserId(userId);
+                            UserProfileCache.getInstance().put(user);
+                            CounterPromoter.getInstance().observeUser(user);
+                        }
+
                         textUsername.setText(documentSnapshot.getString("username"));
 
-                        // Ensure followers are correctly retrieved
+                        // The subscribers counter is kept in sync by FollowService; accounts
+                        // followed before the counter existed still fall back to the list size
                         List<String> followers = (List<String>) documentSnapshot.get("followers");
-                        long followersCount = (followers != null) ? followers.size() : 0;
+                        Long subscribers = documentSnapshot.getLong("subscribers");
+                        long followersCount = Math.max(subscribers != null ? subscribers : 0,
+                                followers != null ? followers.size() : 0);
                         textFollowers.setText(String.valueOf(followersCount));
+                        if (user != null && user.getSubscriberShards() > 0) {
+                            showShardedFollowers(documentSnapshot.getReference(), user.getSubscribers());
+                        }
 
                         // Load profile image using Glide
                         String profilePictureUrl = documentSnapshot.getString("profilePictureUrl");
@@ -142,9 +170,6 @@ public class ProfileFragment extends Fragment {
                                     .placeholder(R.drawable.ic_baseline_person_24) // Default placeholder
                                     .into(profileImage);
                         }
-
-                        // Calculate likes dynamically
-                        calculateTotalLikes(userId);
                     }
                 })
                 .addOnFailureListener(e -> {
@@ -155,27 +180,47 @@ public class ProfileFragment extends Fragment {
                 });
     }
 
+    /**
+     * Shows the follower count of a user whose subscribers counter is sharded.
+     * Followers of a sharded account are not added to its followers list,
+     * so the count is the counter field plus the sum of its shards.
+     *
+     * @param userRef     Document of the user.
+     * @param subscribers Value of the subscribers field.
+     */
+    private void showShardedFollowers(DocumentReference userRef, long subscribers) {
+        new ShardedCounter(userRef, "subscribers").sumShards()
+                .addOnSuccessListener(sum -> textFollowers.setText(String.valueOf(subscribers + sum)));
+    }
+
     /**
      * Calculates the total number of likes for the user's posts.
      * Updates the likes count in the UI.
      *
-     * @param userId ID of the current user.
+     * @param posts Posts of the current user.
      */
-    private void calculateTotalLikes(String userId) {
-        db.collection("posts").whereEqualTo("userId", userId).get()
-                .addOnSuccessListener(querySnapshot -> {
-                    int totalLikes = 0;
-                    for (QueryDocumentSnapshot doc : querySnapshot) {
-                        Post post = doc.toObject(Post.class);
-                        if (post.getLikedBy() != null) {
-                            totalLikes += post.getLikedBy().size();
-                        }
-                    }
-                    textLikes.setText(String.valueOf(totalLikes));
-                })
-                .addOnFailureListener(e -> {
-                    textLikes.setText("0");
-                });
+    private void showTotalLikes(List<Post> posts) {
+        long totalLikes = 0;
+        List<Task<Long>> shardSums = new ArrayList<>();
+        for (Post post : posts) {
+            // Likes not yet moved to like records are still counted in likedBy
+            totalLikes += post.getLikeCount() + (post.getLikedBy() != null ? post.getLikedBy().size() : 0);
+            if (post.getLikeShards() > 0) {
+                shardSums.add(new ShardedCounter(db.collection("posts").document(post.getPostId()), "likeCount").sumShards());
+            }
+        }
+        textLikes.setText(String.valueOf(totalLikes));
+
+        if (!shardSums.isEmpty()) {
+            long unsharded = totalLikes;
+            Tasks.whenAllSuccess(shardSums).addOnSuccessListener(sums -> {
+                long total = unsharded;
+                for (Object sum : sums) {
+                    total += (Long) sum;
+                }
+                textLikes.setText(String.valueOf(total));
+            });
+        }
     }
 
     /**
@@ -187,14 +232,35 @@ public class ProfileFragment extends Fragment {
                 .addOnSuccessListener(querySnapshot -> {
                     postList.clear();
                     for (QueryDocumentSnapshot doc : querySnapshot) {
-                        postList.add(doc.toObject(Post.class));
+                        Post post = doc.toObject(Post.class);
+                        post.setPostId(doc.getId()); // Needed for diffing and stable IDs
+                        postList.add(post);
                     }
-                    postAdapter.notifyDataSetChanged();
+                    postAdapter.submitList(new ArrayList<>(postList));
+                    showTotalLikes(postList);
+                    repairFeedItems(userId, new ArrayList<>(postList));
                 })
                 .addOnFailureListener(e -> {
+                    textLikes.setText("0");
                 });
     }
 
+    /**
+     * Repairs the feed items of the user's posts in the background, e.g. items published
+     * while the profile could not be read. Profile changes themselves are copied into the
+     * feed items server-side by the syncFeedItemAuthor function in functions/.
+     *
+     * @param userId ID of the current user.
+     * @param posts  All posts of the user.
+     */
+    private void repairFeedItems(String userId, List<Post> posts) {
+        UserProfileCache.getInstance().get(userId).addOnSuccessListener(user -> {
+            if (user != null) {
+                new FeedProjection(db).repair(user, posts); // Best effort, retried next session
+            }
+        });
+    }
+
     /**
      * Handles menu item clicks in the toolbar.
      *
@@ -208,10 +274,7 @@ public class ProfileFragment extends Fragment {
             return true;
         } else if (item.getItemId() == R.id.action_logout) {
             // Log out the user
-            mAuth.signOut();
-            Intent intent = new Intent(requireContext(), LoginActivity.class);
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
-            startActivity(intent);
+            SessionTeardown.signOut(requireContext());
             return true;
         }
         return false;
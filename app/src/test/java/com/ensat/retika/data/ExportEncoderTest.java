@@ -0,0 +1,88 @@
+package com.ensat.retika.data;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the quality search of {@link ExportEncoder} with a fake encoder whose output
+ * grows with the quality, counting the encodes.
+ */
+public class ExportEncoderTest {
+
+    private static final int BYTES_PER_QUALITY = 100; // Size of a fake encoding per quality point
+
+    /**
+     * Fake encoder writing {@link #BYTES_PER_QUALITY} bytes per quality point, each set to the quality.
+     */
+    private static class CountingCompressor implements ExportEncoder.Compressor {
+        int encodes = 0;
+
+        @Override
+        public void compress(int quality, OutputStream out) throws IOException {
+            encodes++;
+            for (int i = 0; i < quality * BYTES_PER_QUALITY; i++) {
+                out.write(quality);
+            }
+        }
+    }
+
+    @Test
+    public void ceilingFits_encodesOnce() throws IOException {
+        CountingCompressor compressor = new CountingCompressor();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int quality = ExportEncoder.search(compressor, Long.MAX_VALUE, out);
+
+        assertEquals(ExportEncoder.MAX_QUALITY, quality);
+        assertEquals(1, compressor.encodes);
+        assertEncodedAt(ExportEncoder.MAX_QUALITY, out);
+    }
+
+    @Test
+    public void nothingFits_keepsTheFloorWithoutEncodingItTwice() throws IOException {
+        CountingCompressor compressor = new CountingCompressor();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int quality = ExportEncoder.search(compressor, 1, out);
+
+        assertEquals(ExportEncoder.MIN_QUALITY, quality);
+        assertTrue("encodes: " + compressor.encodes, compressor.encodes <= 4);
+        assertEncodedAt(ExportEncoder.MIN_QUALITY, out);
+    }
+
+    @Test
+    public void everyBudget_picksTheHighestFittingQualityInAtMostFourEncodes() throws IOException {
+        long largest = (long) ExportEncoder.MAX_QUALITY * BYTES_PER_QUALITY;
+        for (long maxBytes = 0; maxBytes <= largest + BYTES_PER_QUALITY; maxBytes += BYTES_PER_QUALITY / 2) {
+            CountingCompressor compressor = new CountingCompressor();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+            int quality = ExportEncoder.search(compressor, maxBytes, out);
+
+            String message = "budget " + maxBytes;
+            assertTrue(message + ", encodes: " + compressor.encodes, compressor.encodes <= 4);
+            assertTrue(message, quality >= ExportEncoder.MIN_QUALITY && quality <= ExportEncoder.MAX_QUALITY);
+            if (quality > ExportEncoder.MIN_QUALITY) {
+                assertTrue(message, out.size() <= maxBytes);
+            }
+            // The next level up, if any, would not have fit
+            boolean higherFits = false;
+            for (int other = quality + 1; other <= ExportEncoder.MAX_QUALITY; other++) {
+                higherFits |= other % 10 == 0 && (long) other * BYTES_PER_QUALITY <= maxBytes;
+            }
+            assertFalse(message + ", chose " + quality, higherFits);
+            assertEncodedAt(quality, out);
+        }
+    }
+
+    private static void assertEncodedAt(int quality, ByteArrayOutputStream out) {
+        byte[] bytes = out.toByteArray();
+        assertEquals(quality * BYTES_PER_QUALITY, bytes.length);
+        assertEquals(quality, bytes[0]);
+    }
+}
@@ -0,0 +1,293 @@
+package com.ensat.retika.data;
+
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.TaskCompletionSource;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks the per-target ordering of {@link Outbox}, its marker-based retries and which
+ * failures drop an entry, with a fake backend and a dispatcher whose sends the test completes.
+ * Runs on Robolectric for the main looper and AtomicFile.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class OutboxTest {
+
+    private static final String TYPE = "toggle";
+    private static final FirebaseFirestoreException UNAVAILABLE =
+            new FirebaseFirestoreException("offline", FirebaseFirestoreException.Code.UNAVAILABLE);
+    private static final FirebaseFirestoreException DENIED =
+            new FirebaseFirestoreException("denied", FirebaseFirestoreException.Code.PERMISSION_DENIED);
+
+    /**
+     * Fake backend with a switchable user and an in-memory set of markers.
+     */
+    private static class FakeBackend implements Outbox.Backend {
+        volatile String uid = "alice";
+        final Set<String> markers = Collections.synchronizedSet(new HashSet<>()); // Keys of applied entries
+        final BlockingQueue<String> deletedMarkers = new LinkedBlockingQueue<>();
+
+        @Nullable
+        @Override
+        public String currentUid() {
+            return uid;
+        }
+
+        @Override
+        public DocumentReference markerOf(@NonNull String key) {
+            return null; // The fake dispatcher never writes it
+        }
+
+        @Override
+        public Task<Boolean> isApplied(@NonNull String key) {
+            return Tasks.forResult(markers.contains(key));
+        }
+
+        @Override
+        public Task<Void> deleteMarker(@NonNull String key) {
+            markers.remove(key);
+            deletedMarkers.add(key);
+            return Tasks.forResult(null);
+        }
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeBackend backend;
+    private Outbox outbox;
+    private final List<String> sent = new ArrayList<>(); // Names of the dispatched entries, in order
+    private final Map<String, Outbox.Entry> entries = new HashMap<>(); // Dispatched entries by name
+    private final Map<String, TaskCompletionSource<Void>> sends = new HashMap<>(); // Latest send by name
+
+    @Before
+    public void setUp() throws Exception {
+        backend = new FakeBackend();
+        outbox = new Outbox(backend, new File(folder.getRoot(), "outbox.json"));
+        outbox.registerDispatcher(TYPE, (entry, marker) -> {
+            String name = entry.getPayload().optString("name");
+            TaskCompletionSource<Void> send = new TaskCompletionSource<>();
+            sent.add(name);
+            entries.put(name, entry);
+            sends.put(name, send);
+            return send.getTask();
+        });
+    }
+
+    @Test
+    public void sameTarget_isSentOneAfterTheOther_inRecordingOrder() {
+        Task<Void> a = record("post", "a");
+        Task<Void> b = record("post", "b");
+        assertEquals(Collections.singletonList("a"), sent);
+
+        succeed("a");
+
+        assertTrue(a.isSuccessful());
+        assertEquals(Arrays.asList("a", "b"), sent);
+        succeed("b");
+        assertTrue(b.isSuccessful());
+        assertTrue(outbox.pending(TYPE).isEmpty());
+    }
+
+    @Test
+    public void differentTargets_areSentRightAway() {
+        record("post1", "a");
+        record("post2", "b");
+
+        assertEquals(Arrays.asList("a", "b"), sent);
+    }
+
+    @Test
+    public void entriesHeldBehindAnother_goOutTogether_andASharedFailureDropsNone() {
+        record("post", "a");
+        Task<Void> b = record("post", "b");
+        Task<Void> c = record("post", "c");
+        succeed("a");
+        assertEquals(Arrays.asList("a", "b", "c"), sent);
+
+        // Merged into one write, a rejection cannot be blamed on either entry yet
+        fail("b", DENIED);
+        fail("c", DENIED);
+        assertFalse(b.isComplete());
+        assertFalse(c.isComplete());
+        assertEquals(2, outbox.pending(TYPE).size());
+
+        // Retried alone, in order, each is judged on its own failure
+        outbox.drain();
+        idle();
+        assertEquals(Arrays.asList("a", "b", "c", "b"), sent);
+        fail("b", DENIED);
+        assertSame(DENIED, b.getException());
+        assertEquals(Arrays.asList("a", "b", "c", "b", "c"), sent);
+        succeed("c");
+        assertTrue(c.isSuccessful());
+    }
+
+    @Test
+    public void rejectedEntrySentAlone_isDropped() {
+        Task<Void> a = record("post", "a");
+
+        fail("a", DENIED);
+
+        assertSame(DENIED, a.getException());
+        assertTrue(outbox.pending(TYPE).isEmpty());
+    }
+
+    @Test
+    public void retry_waitsForItsMarkerCheck_andHoldsNewerEntriesOfItsTarget() {
+        record("post", "a");
+        fail("a", UNAVAILABLE);
+
+        Task<Void> b = record("post", "b");
+        idle();
+
+        assertEquals(Arrays.asList("a", "a"), sent);
+        succeed("a");
+        assertEquals(Arrays.asList("a", "a", "b"), sent);
+        succeed("b");
+        assertTrue(b.isSuccessful());
+    }
+
+    @Test
+    public void retry_ofAnEntryWhoseMarkerExists_completesWithoutSendingAgain() throws Exception {
+        Task<Void> a = record("post", "a");
+        fail("a", UNAVAILABLE); // The write went through but its outcome was lost
+        String key = entries.get("a").getKey();
+        backend.markers.add(key);
+
+        outbox.drain();
+        idle();
+
+        assertEquals(Collections.singletonList("a"), sent);
+        assertTrue(a.isSuccessful());
+        assertTrue(outbox.pending(TYPE).isEmpty());
+        // The marker goes once the removal of the entry is on disk
+        assertEquals(key, backend.deletedMarkers.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void entries_onlyGoOutForTheUserWhoRecordedThem() {
+        Task<Void> a = record("post", "a");
+        fail("a", UNAVAILABLE);
+
+        backend.uid = "bob";
+        outbox.drain();
+        idle();
+        assertEquals(Collections.singletonList("a"), sent);
+        assertTrue(outbox.pending(TYPE).isEmpty());
+
+        backend.uid = "alice";
+        assertEquals(1, outbox.pending(TYPE).size());
+        outbox.drain();
+        idle();
+        assertEquals(Arrays.asList("a", "a"), sent);
+        succeed("a");
+        assertTrue(a.isSuccessful());
+    }
+
+    @Test
+    public void rejectionAfterItsUserSignedOut_isRetriedOnceTheyAreBack() {
+        Task<Void> a = record("post", "a");
+
+        backend.uid = null;
+        fail("a", DENIED);
+        assertFalse(a.isComplete());
+
+        backend.uid = "alice";
+        outbox.drain();
+        idle();
+        assertEquals(Arrays.asList("a", "a"), sent);
+    }
+
+    @Test
+    public void record_withoutASignedInUser_fails() {
+        backend.uid = null;
+
+        Task<Void> a = record("post", "a");
+
+        assertTrue(a.getException() instanceof IllegalStateException);
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void load_skipsEntriesMissingTheirUserOrTarget() throws Exception {
+        File file = new File(folder.getRoot(), "old.json");
+        JSONArray array = new JSONArray()
+                .put(storedEntry("1").put("uid", "alice").put("target", "post"))
+                .put(storedEntry("2").put("target", "post"))
+                .put(storedEntry("3").put("uid", "alice"));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(array.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<Outbox.Entry> pending = new Outbox(backend, file).pending(TYPE);
+
+        assertEquals(1, pending.size());
+        assertEquals("1", pending.get(0).getKey());
+    }
+
+    private Task<Void> record(String target, String name) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("name", name);
+        return outbox.record(TYPE, target, payload);
+    }
+
+    private void succeed(String name) {
+        sends.get(name).setResult(null);
+        idle();
+    }
+
+    private void fail(String name, Exception e) {
+        sends.get(name).setException(e);
+        idle();
+    }
+
+    private static JSONObject storedEntry(String key) throws Exception {
+        return new JSONObject()
+                .put("key", key)
+                .put("type", TYPE)
+                .put("payload", new JSONObject())
+                .put("createdAt", 0);
+    }
+
+    /**
+     * Runs what the outbox and the Tasks API posted to the main looper, but not the
+     * delayed retries, which the tests trigger with {@link Outbox#drain()}.
+     */
+    private static void idle() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,243 @@
+package com.ensat.retika.data;
+
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Checks the merge and cancel rules of {@link WriteCoalescer} and the isolation of rejected
+ * mutations after a failed batch, with a fake committer recording each batch by mutation key.
+ * Runs on Robolectric for the main looper the Tasks API reports on.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WriteCoalescerTest {
+
+    private static final Exception REJECTED = new Exception("rejected");
+
+    /**
+     * Fake toggle such as a like of one post: the same toggle twice stays one write,
+     * opposite toggles cancel out, as in LikeService and FollowService.
+     */
+    private static class ToggleMutation implements WriteCoalescer.Mutation {
+        final String key;
+        final boolean on;
+        final List<Exception> failures = new ArrayList<>();
+
+        ToggleMutation(String key, boolean on) {
+            this.key = key;
+            this.on = on;
+        }
+
+        @Override
+        public String key() {
+            return key;
+        }
+
+        @Nullable
+        @Override
+        public WriteCoalescer.Mutation mergeWith(@NonNull WriteCoalescer.Mutation later) {
+            return ((ToggleMutation) later).on == on ? later : null;
+        }
+
+        @Override
+        public void applyTo(@NonNull WriteBatch batch) {
+            throw new AssertionError("The fake committer never builds a batch");
+        }
+
+        @Override
+        public void onFailure(@NonNull Exception e) {
+            failures.add(e);
+        }
+    }
+
+    /**
+     * Fake committer failing every batch that carries a rejected key.
+     */
+    private static class RecordingCommitter implements WriteCoalescer.Committer {
+        final List<List<WriteCoalescer.Mutation>> batches = new ArrayList<>();
+        final Set<String> rejected = new HashSet<>();
+
+        @Override
+        public Task<Void> commit(@NonNull List<WriteCoalescer.Mutation> mutations) {
+            batches.add(new ArrayList<>(mutations));
+            for (WriteCoalescer.Mutation mutation : mutations) {
+                if (rejected.contains(mutation.key())) {
+                    return Tasks.forException(REJECTED);
+                }
+            }
+            return Tasks.forResult(null);
+        }
+
+        List<List<String>> keys() {
+            List<List<String>> keys = new ArrayList<>();
+            for (List<WriteCoalescer.Mutation> batch : batches) {
+                List<String> batchKeys = new ArrayList<>();
+                for (WriteCoalescer.Mutation mutation : batch) {
+                    batchKeys.add(mutation.key());
+                }
+                keys.add(batchKeys);
+            }
+            return keys;
+        }
+    }
+
+    private RecordingCommitter committer;
+    private WriteCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        committer = new RecordingCommitter();
+        coalescer = new WriteCoalescer(committer);
+    }
+
+    @Test
+    public void oppositeToggles_cancelOut_withoutAnyWrite() {
+        Task<Void> like = coalescer.enqueue(new ToggleMutation("post", true));
+        Task<Void> unlike = coalescer.enqueue(new ToggleMutation("post", false));
+
+        assertTrue(like.isSuccessful());
+        assertTrue(unlike.isSuccessful());
+
+        coalescer.flush();
+        idle();
+        assertTrue(committer.batches.isEmpty());
+    }
+
+    @Test
+    public void sameToggleTwice_isWrittenOnce_andCompletesEveryCaller() {
+        Task<Void> first = coalescer.enqueue(new ToggleMutation("post", true));
+        Task<Void> second = coalescer.enqueue(new ToggleMutation("post", true));
+
+        coalescer.flush();
+        idle();
+
+        assertEquals(Collections.singletonList(Collections.singletonList("post")), committer.keys());
+        assertTrue(first.isSuccessful());
+        assertTrue(second.isSuccessful());
+    }
+
+    @Test
+    public void toggleBurst_writesOnlyTheNetChange() {
+        coalescer.enqueue(new ToggleMutation("post", true));
+        coalescer.enqueue(new ToggleMutation("post", false));
+        ToggleMutation last = new ToggleMutation("post", true);
+        Task<Void> lastTask = coalescer.enqueue(last);
+
+        assertFalse("the last toggle is still pending", lastTask.isComplete());
+        coalescer.flush();
+        idle();
+
+        assertEquals(1, committer.batches.size());
+        assertEquals(Collections.singletonList(last), committer.batches.get(0));
+        assertTrue(lastTask.isSuccessful());
+    }
+
+    @Test
+    public void differentKeys_shareOneBatch_inEnqueueOrder() {
+        coalescer.enqueue(new ToggleMutation("a", true));
+        coalescer.enqueue(new ToggleMutation("b", false));
+        coalescer.enqueue(new ToggleMutation("c", true));
+
+        coalescer.flush();
+        idle();
+
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b", "c")), committer.keys());
+    }
+
+    @Test
+    public void rejectedMutation_failsAlone_andTheOthersGoThrough() {
+        ToggleMutation a = new ToggleMutation("a", true);
+        ToggleMutation bad = new ToggleMutation("bad", true);
+        ToggleMutation c = new ToggleMutation("c", true);
+        committer.rejected.add("bad");
+        Task<Void> aTask = coalescer.enqueue(a);
+        Task<Void> badTask = coalescer.enqueue(bad);
+        Task<Void> cTask = coalescer.enqueue(c);
+
+        Task<Void> flush = coalescer.flush();
+        idle();
+
+        assertEquals(Arrays.asList(
+                Arrays.asList("a", "bad", "c"),
+                Collections.singletonList("a"),
+                Collections.singletonList("bad"),
+                Collections.singletonList("c")), committer.keys());
+        assertTrue(aTask.isSuccessful());
+        assertTrue(cTask.isSuccessful());
+        assertSame(REJECTED, badTask.getException());
+        assertEquals(Collections.singletonList(REJECTED), bad.failures);
+        assertTrue(a.failures.isEmpty());
+        assertTrue(c.failures.isEmpty());
+        assertFalse(flush.isSuccessful());
+    }
+
+    @Test
+    public void rejectedMergedMutation_failsEveryCaller() {
+        committer.rejected.add("post");
+        Task<Void> first = coalescer.enqueue(new ToggleMutation("post", true));
+        Task<Void> second = coalescer.enqueue(new ToggleMutation("post", true));
+
+        coalescer.flush();
+        idle();
+
+        assertEquals(1, committer.batches.size()); // Alone already, so not retried
+        assertSame(REJECTED, first.getException());
+        assertSame(REJECTED, second.getException());
+    }
+
+    @Test
+    public void largeFlush_isSplitIntoBatchesOfAHundred() {
+        for (int i = 0; i < 250; i++) {
+            coalescer.enqueue(new ToggleMutation("post" + i, true));
+        }
+
+        coalescer.flush();
+        idle();
+
+        assertEquals(3, committer.batches.size());
+        assertEquals(100, committer.batches.get(0).size());
+        assertEquals(100, committer.batches.get(1).size());
+        assertEquals(50, committer.batches.get(2).size());
+        assertEquals("post200", committer.batches.get(2).get(0).key());
+    }
+
+    @Test
+    public void enqueue_flushesOnItsOwnAfterTheWindow() {
+        Task<Void> task = coalescer.enqueue(new ToggleMutation("post", true));
+
+        idle();
+        assertTrue("writes are held during the window", committer.batches.isEmpty());
+
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(2));
+        assertEquals(1, committer.batches.size());
+        assertTrue(task.isSuccessful());
+    }
+
+    /**
+     * Runs what the Tasks API posted to the main looper.
+     */
+    private static void idle() {
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+}
@@ -0,0 +1,98 @@
+package com.ensat.retika.editor;
+
+import android.graphics.RectF;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the mapping of upright regions to stored regions used by region decodes,
+ * for every EXIF orientation. Runs on Robolectric for RectF.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BitmapLoaderTest {
+
+    private static final float EPSILON = 1e-6f;
+    private static final RectF REGION = new RectF(0.1f, 0.2f, 0.4f, 0.7f); // Asymmetric on purpose
+
+    @Test
+    public void toRawRegion_mapsBackToTheRegion_forEveryOrientation() {
+        for (int orientation = ExifInterface.ORIENTATION_UNDEFINED; orientation <= ExifInterface.ORIENTATION_ROTATE_270; orientation++) {
+            RectF raw = BitmapLoader.toRawRegion(REGION, orientation);
+
+            // Both raw corners, shown upright, must span exactly the requested region
+            float[] a = toUpright(raw.left, raw.top, orientation);
+            float[] b = toUpright(raw.right, raw.bottom, orientation);
+            String message = "orientation " + orientation;
+            assertEquals(message, REGION.left, Math.min(a[0], b[0]), EPSILON);
+            assertEquals(message, REGION.top, Math.min(a[1], b[1]), EPSILON);
+            assertEquals(message, REGION.right, Math.max(a[0], b[0]), EPSILON);
+            assertEquals(message, REGION.bottom, Math.max(a[1], b[1]), EPSILON);
+            assertTrue(message, raw.left <= raw.right && raw.top <= raw.bottom);
+        }
+    }
+
+    @Test
+    public void toRawRegion_normalAndUndefined_keepTheRegion() {
+        assertRect(0.1f, 0.2f, 0.4f, 0.7f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_NORMAL));
+        assertRect(0.1f, 0.2f, 0.4f, 0.7f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_UNDEFINED));
+    }
+
+    @Test
+    public void toRawRegion_flips() {
+        assertRect(0.6f, 0.2f, 0.9f, 0.7f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_FLIP_HORIZONTAL));
+        assertRect(0.1f, 0.3f, 0.4f, 0.8f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_FLIP_VERTICAL));
+        assertRect(0.2f, 0.1f, 0.7f, 0.4f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_TRANSPOSE));
+        assertRect(0.3f, 0.6f, 0.8f, 0.9f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_TRANSVERSE));
+    }
+
+    @Test
+    public void toRawRegion_rotations() {
+        // A photo taken in portrait is stored sideways with ORIENTATION_ROTATE_90
+        assertRect(0.2f, 0.6f, 0.7f, 0.9f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_ROTATE_90));
+        assertRect(0.6f, 0.3f, 0.9f, 0.8f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_ROTATE_180));
+        assertRect(0.3f, 0.1f, 0.8f, 0.4f, BitmapLoader.toRawRegion(REGION, ExifInterface.ORIENTATION_ROTATE_270));
+    }
+
+    /**
+     * Maps a point of the stored image to the upright image, as the EXIF specification defines
+     * each orientation, independently of the code under test.
+     *
+     * @param x           X in 0..1 coordinates of the stored image.
+     * @param y           Y in 0..1 coordinates of the stored image.
+     * @param orientation EXIF orientation.
+     * @return The point in 0..1 coordinates of the upright image.
+     */
+    private static float[] toUpright(float x, float y, int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                return new float[]{1 - x, y};
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return new float[]{1 - x, 1 - y};
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                return new float[]{x, 1 - y};
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                return new float[]{y, x};
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return new float[]{1 - y, x}; // The stored top-left corner ends up top-right
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                return new float[]{1 - y, 1 - x};
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return new float[]{y, 1 - x};
+            default:
+                return new float[]{x, y};
+        }
+    }
+
+    private static void assertRect(float left, float top, float right, float bottom, RectF actual) {
+        assertEquals(left, actual.left, EPSILON);
+        assertEquals(top, actual.top, EPSILON);
+        assertEquals(right, actual.right, EPSILON);
+        assertEquals(bottom, actual.bottom, EPSILON);
+    }
+}
@@ -0,0 +1,165 @@
+package com.ensat.retika.editor;
+
+import android.graphics.RectF;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local tests of the crop and rotation composition and the undo history of {@link EditPipeline}.
+ * Runs on Robolectric for RectF.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EditPipelineTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    @Test
+    public void cropWithoutRotation_narrowsTheRegion() {
+        EditPipeline pipeline = new EditPipeline();
+        pipeline.push(new EditPipeline.CropOp(new RectF(0.5f, 0f, 1f, 1f)));
+        pipeline.push(new EditPipeline.CropOp(new RectF(0f, 0.5f, 0.5f, 1f)));
+
+        assertRect(0.5f, 0.5f, 0.75f, 1f, pipeline.sourceRegion());
+        assertEquals(0, pipeline.rotation());
+    }
+
+    @Test
+    public void cropAfterRotate90_mapsToTheSourceBottom() {
+        EditPipeline pipeline = new EditPipeline();
+        pipeline.push(new EditPipeline.RotateOp(90));
+        // The left half of the rotated image is the bottom half of the source
+        pipeline.push(new EditPipeline.CropOp(new RectF(0f, 0f, 0.5f, 1f)));
+
+        assertRect(0f, 0.5f, 1f, 1f, pipeline.sourceRegion());
+        assertEquals(90, pipeline.rotation());
+        assertArrayEquals(new int[]{100, 400}, pipeline.outputSize(400, 200));
+    }
+
+    @Test
+    public void cropAfterRotate180_mapsToTheOppositeCorner() {
+        EditPipeline pipeline = new EditPipeline();
+        pipeline.push(new EditPipeline.RotateOp(180));
+        pipeline.push(new EditPipeline.CropOp(new RectF(0f, 0f, 0.5f, 0.5f)));
+
+        assertRect(0.5f, 0.5f, 1f, 1f, pipeline.sourceRegion());
+        assertArrayEquals(new int[]{200, 100}, pipeline.outputSize(400, 200));
+    }
+
+    @Test
+    public void cropAfterRotate270_mapsToTheSourceRight() {
+        EditPipeline pipeline = new EditPipeline();
+        pipeline.push(new EditPipeline.RotateOp(-90));
+        // The top half of the rotated image is the right half of the source
+        pipeline.push(new EditPipeline.CropOp(new RectF(0f, 0f, 1f, 0.5f)));
+
+        assertRect(0.5f, 0f, 1f, 1f, pipeline.sourceRegion());
+        assertEquals(270, pipeline.rotation());
+    }
+
+    @Test
+    public void cropBetweenRotations_usesTheRotationInEffectAtThatPoint() {
+        EditPipeline pipeline = new EditPipeline();
+        pipeline.push(new EditPipeline.RotateOp(90));
+        pipeline.push(new EditPipeline.CropOp(new RectF(0f, 0f, 0.5f, 1f))); // Source bottom half
+        pipeline.push(new EditPipeline.RotateOp(90));
+        // At 180 degrees, the top half of the image is the bottom of the remaining region
+        pipeline.push(new EditPipeline.CropOp(new RectF(0f, 0f, 1f, 0.5f)));
+
+        assertRect(0f, 0.75f, 1f, 1f, pipeline.sourceRegion());
+        assertEquals(180, pipeline.rotation());
+    }
+
+    @Test
+    public void fourRotations_cancelOut() {
+        EditPipeline pipeline = new EditPipeline();
+        for (int i = 0; i < 4; i++) {
+            pipeline.push(new EditPipeline.RotateOp(90));
+        }
+
+        assertEquals(0, pipeline.rotation());
+        assertArrayEquals(new int[]{400, 200}, pipeline.outputSize(400, 200));
+    }
+
+    @Test
+    public void centered_keepsTheLargestCenteredArea() {
+        EditPipeline pipeline = new EditPipeline();
+        pipeline.push(EditPipeline.CropOp.centeredSquare(400, 200));
+        assertRect(0.25f, 0f, 0.75f, 1f, pipeline.sourceRegion());
+
+        pipeline.clear();
+        pipeline.push(EditPipeline.CropOp.centered(200, 400, 1f));
+        assertRect(0f, 0.25f, 1f, 0.75f, pipeline.sourceRegion());
+    }
+
+    @Test
+    public void undoAndRedo_moveTheCursor() {
+        EditPipeline pipeline = new EditPipeline();
+        pipeline.push(new EditPipeline.RotateOp(90));
+        pipeline.push(new EditPipeline.CropOp(new RectF(0f, 0f, 0.5f, 1f)));
+
+        pipeline.undo();
+        assertEquals(90, pipeline.rotation());
+        assertRect(0f, 0f, 1f, 1f, pipeline.sourceRegion());
+        assertTrue(pipeline.canRedo());
+
+        pipeline.undo();
+        assertEquals(0, pipeline.rotation());
+        assertFalse(pipeline.canUndo());
+        pipeline.undo(); // Nothing left to undo
+        assertTrue(pipeline.isEmpty());
+
+        pipeline.redo();
+        pipeline.redo();
+        assertEquals(90, pipeline.rotation());
+        assertRect(0f, 0.5f, 1f, 1f, pipeline.sourceRegion());
+        assertFalse(pipeline.canRedo());
+    }
+
+    @Test
+    public void pushAfterUndo_dropsTheRedoTail() {
+        EditPipeline pipeline = new EditPipeline();
+        EditPipeline.RotateOp first = new EditPipeline.RotateOp(90);
+        EditPipeline.CropOp replaced = new EditPipeline.CropOp(new RectF(0f, 0f, 0.5f, 1f));
+        EditPipeline.FilterOp replacement = new EditPipeline.FilterOp(EditPipeline.FilterOp.GRAYSCALE, 0f);
+        pipeline.push(first);
+        pipeline.push(replaced);
+
+        pipeline.undo();
+        pipeline.push(replacement);
+
+        assertFalse(pipeline.canRedo());
+        List<EditPipeline.EditOp> ops = pipeline.getOps();
+        assertEquals(2, ops.size());
+        assertSame(first, ops.get(0));
+        assertSame(replacement, ops.get(1));
+        assertRect(0f, 0f, 1f, 1f, pipeline.sourceRegion());
+
+        pipeline.redo(); // The undone crop is gone
+        assertEquals(2, pipeline.getOps().size());
+    }
+
+    @Test
+    public void snapshot_isNotAffectedByLaterEdits() {
+        EditPipeline pipeline = new EditPipeline();
+        pipeline.push(new EditPipeline.RotateOp(90));
+        EditPipeline snapshot = pipeline.snapshot();
+
+        pipeline.push(new EditPipeline.RotateOp(90));
+
+        assertEquals(90, snapshot.rotation());
+        assertEquals(180, pipeline.rotation());
+    }
+
+    private static void assertRect(float left, float top, float right, float bottom, RectF actual) {
+        assertEquals(left, actual.left, EPSILON);
+        assertEquals(top, actual.top, EPSILON);
+        assertEquals(right, actual.right, EPSILON);
+        assertEquals(bottom, actual.bottom, EPSILON);
+    }
+}
@@ -0,0 +1,52 @@
+package com.ensat.retika.editor;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Minimal timing of a 12 MP sepia pass, single-threaded against {@link FilterEngine}.
+ * Timings depend on the host, so only the results are asserted; the times are printed.
+ * Ignored by default: it allocates about 150 MB and takes seconds, and {@link FilterEngineTest}
+ * already checks the results on every build. Remove the annotation to run it locally.
+ */
+@Ignore("Manual benchmark, run locally when changing FilterEngine")
+public class FilterEngineBenchmark {
+
+    private static final int PIXELS = 4000 * 3000;
+    private static final int WARMUP_RUNS = 3;
+    private static final int MEASURED_RUNS = 5;
+
+    @Test
+    public void sepia12Megapixels() {
+        ImageFilter filter = new SepiaFilter(0.8f);
+        FilterEngine engine = new FilterEngine(Runtime.getRuntime().availableProcessors());
+        int[] source = FilterEngineTest.randomPixels(PIXELS);
+        int[] single = new int[PIXELS];
+        int[] parallel = new int[PIXELS];
+
+        long singleNanos = Long.MAX_VALUE;
+        long parallelNanos = Long.MAX_VALUE;
+        for (int run = 0; run < WARMUP_RUNS + MEASURED_RUNS; run++) {
+            System.arraycopy(source, 0, single, 0, PIXELS);
+            long start = System.nanoTime();
+            filter.apply(single, 0, PIXELS);
+            long singleRun = System.nanoTime() - start;
+
+            System.arraycopy(source, 0, parallel, 0, PIXELS);
+            start = System.nanoTime();
+            engine.apply(filter, parallel);
+            long parallelRun = System.nanoTime() - start;
+
+            if (run >= WARMUP_RUNS) {
+                singleNanos = Math.min(singleNanos, singleRun);
+                parallelNanos = Math.min(parallelNanos, parallelRun);
+            }
+        }
+
+        assertArrayEquals(single, parallel);
+        System.out.printf("Sepia on %d pixels: single-threaded %.1f ms, FilterEngine %.1f ms on %d cores%n",
+                PIXELS, singleNanos / 1e6, parallelNanos / 1e6, Runtime.getRuntime().availableProcessors());
+    }
+}
@@ -0,0 +1,72 @@
+package com.ensat.retika.editor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that filtering in parallel tiles gives exactly the result of a single-threaded pass,
+ * whatever the buffer length is relative to {@link FilterEngine#TILE_PIXELS}.
+ */
+public class FilterEngineTest {
+
+    private final FilterEngine engine = new FilterEngine(4);
+
+    @Test
+    public void belowOneTile() {
+        assertSameAsSingleThreaded(FilterEngine.TILE_PIXELS - 1);
+    }
+
+    @Test
+    public void exactlyOneTile() {
+        assertSameAsSingleThreaded(FilterEngine.TILE_PIXELS);
+    }
+
+    @Test
+    public void oddMultiplesOfATile() {
+        assertSameAsSingleThreaded(3 * FilterEngine.TILE_PIXELS);
+        assertSameAsSingleThreaded(7 * FilterEngine.TILE_PIXELS);
+    }
+
+    @Test
+    public void notAMultipleOfATile() {
+        assertSameAsSingleThreaded(5 * FilterEngine.TILE_PIXELS + 17);
+    }
+
+    @Test
+    public void range_leavesTheRestOfTheBuffer() {
+        int[] pixels = randomPixels(4 * FilterEngine.TILE_PIXELS);
+        int[] expected = pixels.clone();
+        int from = 1001;
+        int to = pixels.length - 999;
+        new SepiaFilter(0.8f).apply(expected, from, to);
+
+        engine.apply(new SepiaFilter(0.8f), pixels, from, to);
+
+        assertArrayEquals(expected, pixels);
+    }
+
+    private void assertSameAsSingleThreaded(int length) {
+        ImageFilter[] filters = {new SepiaFilter(0.7f), new GrayscaleFilter(), new BrightnessFilter(0.3f)};
+        for (ImageFilter filter : filters) {
+            int[] pixels = randomPixels(length);
+            int[] expected = pixels.clone();
+            filter.apply(expected, 0, expected.length);
+
+            engine.apply(filter, pixels);
+
+            assertArrayEquals(filter.getClass().getSimpleName() + " on " + length + " pixels", expected, pixels);
+        }
+    }
+
+    static int[] randomPixels(int length) {
+        Random random = new Random(length);
+        int[] pixels = new int[length];
+        for (int i = 0; i < length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
@@ -0,0 +1,164 @@
+package com.ensat.retika.editor;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the fixed-point filters against the float formulas of the GPUImage shaders they mirror.
+ * Fixed-point rounding may differ from the float result by a couple of levels per channel.
+ */
+public class ImageFilterTest {
+
+    private static final int TOLERANCE = 2; // Levels per channel allowed for fixed-point rounding
+
+    @Test
+    public void sepia_matchesTheColorMatrixBlendedByIntensity() {
+        for (float intensity : new float[]{0f, 0.25f, 0.5f, 1f}) {
+            int[] pixels = samplePixels();
+            int[] original = pixels.clone();
+            new SepiaFilter(intensity).apply(pixels, 0, pixels.length);
+
+            for (int i = 0; i < pixels.length; i++) {
+                float r = red(original[i]), g = green(original[i]), b = blue(original[i]);
+                float keep = 1 - intensity;
+                assertChannels(original[i], pixels[i],
+                        intensity * (0.3588f * r + 0.7044f * g + 0.1368f * b) + keep * r,
+                        intensity * (0.2990f * r + 0.5870f * g + 0.1140f * b) + keep * g,
+                        intensity * (0.2392f * r + 0.4696f * g + 0.0912f * b) + keep * b);
+            }
+        }
+    }
+
+    @Test
+    public void sepia_zeroIntensity_keepsTheImage() {
+        int[] pixels = samplePixels();
+        int[] original = pixels.clone();
+        new SepiaFilter(0f).apply(pixels, 0, pixels.length);
+
+        assertArrayEquals(original, pixels);
+    }
+
+    @Test
+    public void sepia_clampsAt255() {
+        int[] pixels = {0xFFFFFFFF, 0x80FFFFFF};
+        new SepiaFilter(1f).apply(pixels, 0, pixels.length);
+
+        // 0.3588 + 0.7044 + 0.1368 of white is above 255
+        assertEquals(255, red(pixels[0]));
+        assertEquals(255, green(pixels[0]));
+        assertEquals(0x80, pixels[1] >>> 24);
+    }
+
+    @Test
+    public void grayscale_matchesTheLuminanceWeights() {
+        int[] pixels = samplePixels();
+        int[] original = pixels.clone();
+        new GrayscaleFilter().apply(pixels, 0, pixels.length);
+
+        for (int i = 0; i < pixels.length; i++) {
+            float luminance = 0.2125f * red(original[i]) + 0.7154f * green(original[i]) + 0.0721f * blue(original[i]);
+            assertChannels(original[i], pixels[i], luminance, luminance, luminance);
+            assertEquals(red(pixels[i]), green(pixels[i]));
+            assertEquals(red(pixels[i]), blue(pixels[i]));
+        }
+    }
+
+    @Test
+    public void grayscale_keepsBlackAndWhite() {
+        int[] pixels = {0xFF000000, 0xFFFFFFFF};
+        new GrayscaleFilter().apply(pixels, 0, pixels.length);
+
+        assertEquals(0xFF000000, pixels[0]);
+        assertEquals(0xFFFFFFFF, pixels[1]);
+    }
+
+    @Test
+    public void brightness_addsTheOffsetToEveryChannel() {
+        for (float brightness : new float[]{-0.5f, -0.1f, 0f, 0.1f, 0.5f}) {
+            int[] pixels = samplePixels();
+            int[] original = pixels.clone();
+            new BrightnessFilter(brightness).apply(pixels, 0, pixels.length);
+
+            for (int i = 0; i < pixels.length; i++) {
+                float offset = brightness * 255;
+                assertChannels(original[i], pixels[i],
+                        red(original[i]) + offset, green(original[i]) + offset, blue(original[i]) + offset);
+            }
+        }
+    }
+
+    @Test
+    public void brightness_clampsAt0And255() {
+        int[] darker = {0xFF102030, 0x00FFFFFF};
+        new BrightnessFilter(-1f).apply(darker, 0, darker.length);
+        assertEquals(0xFF000000, darker[0]);
+        assertEquals(0x00000000, darker[1]);
+
+        int[] brighter = {0xFF102030, 0x7F000000};
+        new BrightnessFilter(1f).apply(brighter, 0, brighter.length);
+        assertEquals(0xFFFFFFFF, brighter[0]);
+        assertEquals(0x7FFFFFFF, brighter[1]);
+    }
+
+    @Test
+    public void apply_onlyTouchesTheRange() {
+        int[] pixels = samplePixels();
+        int[] original = pixels.clone();
+        new GrayscaleFilter().apply(pixels, 10, 20);
+
+        for (int i = 0; i < pixels.length; i++) {
+            if (i < 10 || i >= 20) {
+                assertEquals(original[i], pixels[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns random pixels with random alpha, plus the extremes of every channel.
+     *
+     * @return Pixels packed as 0xAARRGGBB.
+     */
+    static int[] samplePixels() {
+        Random random = new Random(42);
+        int[] pixels = new int[1000];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        pixels[0] = 0xFF000000;
+        pixels[1] = 0xFFFFFFFF;
+        pixels[2] = 0x00FF0000;
+        pixels[3] = 0x8000FF00;
+        pixels[4] = 0x010000FF;
+        return pixels;
+    }
+
+    /**
+     * Checks a filtered pixel against float reference values, clamped to 0..255,
+     * and checks that its alpha is unchanged.
+     */
+    private static void assertChannels(int original, int actual, float red, float green, float blue) {
+        assertEquals("alpha of " + Integer.toHexString(original), original >>> 24, actual >>> 24);
+        assertEquals("red of " + Integer.toHexString(original), clamp(red), red(actual), TOLERANCE);
+        assertEquals("green of " + Integer.toHexString(original), clamp(green), green(actual), TOLERANCE);
+        assertEquals("blue of " + Integer.toHexString(original), clamp(blue), blue(actual), TOLERANCE);
+    }
+
+    private static float clamp(float value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static int red(int argb) {
+        return (argb >> 16) & 0xFF;
+    }
+
+    private static int green(int argb) {
+        return (argb >> 8) & 0xFF;
+    }
+
+    private static int blue(int argb) {
+        return argb & 0xFF;
+    }
+}
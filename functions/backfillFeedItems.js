@@ -0,0 +1,64 @@
+/**
+ * One-off admin script writing the feedItems of posts created before the projection existed,
+ * then setting the meta/feedProjection marker that switches every client's feed to feedItems.
+ * Existing feed items are left untouched; partial items, which have no timestamp, are rewritten.
+ * Safe to run again: it only writes what is still missing.
+ *
+ * Usage, with credentials allowed to write the whole database:
+ *   GOOGLE_APPLICATION_CREDENTIALS=service-account.json node backfillFeedItems.js
+ */
+const {initializeApp} = require("firebase-admin/app");
+const {getFirestore, FieldValue} = require("firebase-admin/firestore");
+const {projectPost} = require("./feedProjection");
+
+const PAGE_SIZE = 300; // Posts checked per step
+
+async function backfill() {
+  initializeApp();
+  const db = getFirestore();
+  const authors = new Map(); // Author data by user ID, read once each
+  let last = null;
+  let checked = 0;
+  let written = 0;
+
+  for (;;) {
+    let query = db.collection("posts").orderBy("timestamp", "desc").limit(PAGE_SIZE);
+    if (last) {
+      query = query.startAfter(last);
+    }
+    const page = await query.get();
+    if (page.empty) break;
+
+    const itemRefs = page.docs.map((doc) => db.collection("feedItems").doc(doc.id));
+    const items = await db.getAll(...itemRefs);
+    const writer = db.bulkWriter();
+    for (let i = 0; i < page.docs.length; i++) {
+      if (items[i].exists && items[i].get("timestamp") != null) continue;
+      const postDoc = page.docs[i];
+      const userId = postDoc.get("userId");
+      if (userId && !authors.has(userId)) {
+        const user = await db.collection("users").doc(userId).get();
+        authors.set(userId, user.exists ? user.data() : null);
+      }
+      writer.set(itemRefs[i], await projectPost(postDoc, userId ? authors.get(userId) : null));
+      written++;
+    }
+    await writer.close();
+
+    checked += page.size;
+    last = page.docs[page.docs.length - 1];
+    console.log(`Checked ${checked} posts, wrote ${written} feed items`);
+    if (page.size < PAGE_SIZE) break;
+  }
+
+  await db.collection("meta").doc("feedProjection").set({
+    backfilled: true,
+    backfilledAt: FieldValue.serverTimestamp(),
+  });
+  console.log("Backfill marker set");
+}
+
+backfill().catch((e) => {
+  console.error(e);
+  process.exit(1);
+});
@@ -0,0 +1,45 @@
+/**
+ * Server-side copy of the feed item projection written by the app's FeedProjection.
+ * Field names match the app's Post model, so feed items read back as posts.
+ */
+const RECENT_COMMENTS = 2; // Same as FeedProjection.RECENT_COMMENTS in the app
+
+/**
+ * Builds the full feed item of a post.
+ * The first comments come from the embedded legacy comments, completed from the
+ * comments subcollection when there are fewer than needed.
+ *
+ * @param {FirebaseFirestore.QueryDocumentSnapshot} postDoc Post document.
+ * @param {?Object} author Author's user document data, or null if unknown.
+ * @return {Promise<Object>} Feed item fields.
+ */
+async function projectPost(postDoc, author) {
+  const post = postDoc.data();
+  const legacyComments = post.comments || [];
+  const recent = legacyComments.slice(0, RECENT_COMMENTS);
+  if (recent.length < RECENT_COMMENTS && (post.commentCount || 0) > 0) {
+    const page = await postDoc.ref.collection("comments")
+        .orderBy("timestamp", "asc")
+        .limit(RECENT_COMMENTS - recent.length)
+        .get();
+    page.forEach((doc) => recent.push(doc.data()));
+  }
+
+  return {
+    postId: postDoc.id,
+    userId: post.userId || null,
+    imageUrl: post.imageUrl || null,
+    thumbnailUrl: post.thumbnailUrl || null,
+    feedImageUrl: post.feedImageUrl || null,
+    caption: post.caption || null,
+    timestamp: post.timestamp,
+    likeCount: (post.likedBy || []).length + (post.likeCount || 0),
+    likeShards: post.likeShards || 0,
+    commentCount: legacyComments.length + (post.commentCount || 0),
+    recentComments: recent,
+    authorUsername: author ? author.username || null : null,
+    authorAvatarUrl: author ? author.profilePictureUrl || null : null,
+  };
+}
+
+module.exports = {projectPost};
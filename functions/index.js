@@ -0,0 +1,30 @@
+/**
+ * Cloud Functions keeping the feedItems projection in sync with data only the server
+ * should write for other users.
+ */
+const {onDocumentUpdated} = require("firebase-functions/v2/firestore");
+const {initializeApp} = require("firebase-admin/app");
+const {getFirestore} = require("firebase-admin/firestore");
+
+initializeApp();
+
+/**
+ * Copies a user's new username or avatar into the feed items of their posts,
+ * whichever path changed the profile. Counter updates on the user document are ignored.
+ */
+exports.syncFeedItemAuthor = onDocumentUpdated("users/{userId}", async (event) => {
+  const before = event.data.before.data() || {};
+  const after = event.data.after.data() || {};
+  if (before.username === after.username && before.profilePictureUrl === after.profilePictureUrl) {
+    return;
+  }
+
+  const db = getFirestore();
+  const items = await db.collection("feedItems").where("userId", "==", event.params.userId).get();
+  const writer = db.bulkWriter();
+  items.forEach((doc) => writer.update(doc.ref, {
+    authorUsername: after.username || null,
+    authorAvatarUrl: after.profilePictureUrl || null,
+  }));
+  await writer.close();
+});